@@ -0,0 +1,51 @@
+package ctlauncher.bench;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point of benchmarks.jar; takes the usual JMH command line.
+ *
+ * The gc profiler is always on, so every result carries the allocation rate and bytes per
+ * operation next to the timing. Forks run headless with user.home pointed at a scratch
+ * directory (the launcher keeps all of its files under ~/.ctlauncher) and launcher metrics off.
+ */
+public class BenchmarkRunner {
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions cmd = new CommandLineOptions(args);
+        if (cmd.shouldHelp()) {
+            cmd.showHelp();
+            return;
+        }
+        if (cmd.shouldList()) {
+            new Runner(cmd).list();
+            return;
+        }
+        
+        Path home = Files.createTempDirectory("ctlauncher-bench");
+        try {
+            Options options = new OptionsBuilder()
+                .parent(cmd)
+                .addProfiler(GCProfiler.class)
+                .jvmArgsAppend("-Duser.home=" + home, "-Djava.awt.headless=true", "-Dctlauncher.metrics.enabled=false")
+                .build();
+            new Runner(options).run();
+        } finally {
+            deleteTree(home);
+        }
+    }
+    
+    private static void deleteTree(Path root) throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package ctlauncher.bench;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/** Checked-in manifests and version JSONs under src/main/resources/fixtures. */
+final class Fixtures {
+    private Fixtures() {}
+    
+    static String read(String name) throws IOException {
+        try (InputStream in = Fixtures.class.getResourceAsStream("/fixtures/" + name)) {
+            if (in == null) throw new FileNotFoundException("No fixture " + name);
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+    
+    static CTLauncher.VersionProfile profile(String version) throws IOException {
+        return CTLauncher.VersionProfile.fromJson(CTLauncher.Json.parseObject(read(version + ".json")), 0);
+    }
+}
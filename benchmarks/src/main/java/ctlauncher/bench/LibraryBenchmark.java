@@ -0,0 +1,75 @@
+package ctlauncher.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Per-launch work over a version's library list: picking the artifacts this platform needs,
+ * building the classpath (one stat per jar) and assembling arguments.jvm. 1.20.1 is the
+ * rules-heavy modern layout, 1.8.9 the legacy natives/classifiers one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LibraryBenchmark {
+    @Param({"1.20.1", "1.8.9"})
+    public String version;
+    
+    private CTLauncher.VersionProfile profile;
+    private CTLauncher.LauncherCore core;
+    private String nativesDir;
+    
+    @Setup
+    public void setUp() throws IOException {
+        profile = Fixtures.profile(version);
+        core = new CTLauncher.LauncherCore((v, percent, message) -> { }, true);
+        // CTLauncher's directory layout under the scratch user.home BenchmarkRunner sets
+        Path root = Paths.get(System.getProperty("user.home"), ".ctlauncher");
+        nativesDir = root.resolve("versions").resolve(version).resolve("natives").toString();
+        
+        // Empty stand-ins so addLibrariesToClasspath finds every jar
+        for (CTLauncher.Artifact artifact : CTLauncher.LauncherCore.librariesToDownload(profile)) {
+            Path jar = root.resolve("libraries").resolve(artifact.path);
+            Files.createDirectories(jar.getParent());
+            if (!Files.exists(jar)) Files.createFile(jar);
+        }
+    }
+    
+    @Benchmark
+    public List<CTLauncher.Artifact> librariesToDownload() {
+        return CTLauncher.LauncherCore.librariesToDownload(profile);
+    }
+    
+    @Benchmark
+    public List<String> addLibrariesToClasspath() {
+        List<String> classpath = new ArrayList<>();
+        core.addLibrariesToClasspath(profile, classpath);
+        return classpath;
+    }
+    
+    @Benchmark
+    public List<String> addJvmArgs() {
+        List<String> cmd = new ArrayList<>();
+        core.addJvmArgs(profile, cmd, nativesDir);
+        return cmd;
+    }
+    
+    @TearDown
+    public void checkClasspath() {
+        List<String> classpath = addLibrariesToClasspath();
+        for (String jar : classpath) {
+            if (!new File(jar).exists()) throw new IllegalStateException("Fixture jar missing: " + jar);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package ctlauncher.bench;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Version manifest parsing, the work behind every refresh of the version list, and version JSON
+ * parsing into a VersionProfile, done for each version that is installed or launched without a
+ * cached profile. Allocation comes from the gc profiler BenchmarkRunner always adds.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ManifestBenchmark {
+    private String manifest;
+    private String modernJson;
+    private String legacyJson;
+    
+    @Setup
+    public void load() throws IOException {
+        manifest = Fixtures.read("version_manifest.json");
+        modernJson = Fixtures.read("1.20.1.json");
+        legacyJson = Fixtures.read("1.8.9.json");
+    }
+    
+    @Benchmark
+    public Map<String, List<String>> parseVersionManifest() {
+        Map<String, String> versions = new HashMap<>();
+        Map<String, List<String>> categories = CTLauncher.newVersionCategories();
+        CTLauncher.parseVersionManifest(manifest, versions, categories);
+        return categories;
+    }
+    
+    // 1.20.1.json: argument lists, rules on every LWJGL native, javaVersion
+    @Benchmark
+    public CTLauncher.VersionProfile parseModernVersion() {
+        return CTLauncher.VersionProfile.fromJson(CTLauncher.Json.parseObject(modernJson), 0);
+    }
+    
+    // 1.8.9.json: minecraftArguments string and natives classifiers
+    @Benchmark
+    public CTLauncher.VersionProfile parseLegacyVersion() {
+        return CTLauncher.VersionProfile.fromJson(CTLauncher.Json.parseObject(legacyJson), 0);
+    }
+}
@@ -0,0 +1,56 @@
+package ctlauncher.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * SHA-1 verification of downloaded files, from a small asset object up to a client jar.
+ * The file is written once per trial, so after the first read it is served from page cache
+ * and the numbers are hashing plus read overhead, not disk speed. intact() goes through
+ * InstallCheck, which memory-maps files of 256 KB and more; sha1Of() always streams.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Sha1Benchmark {
+    @Param({"4096", "1048576", "25165824"})
+    public int size;
+    
+    private Path file;
+    private CTLauncher.Artifact artifact;
+    private final AtomicLong hashed = new AtomicLong();
+    
+    @Setup
+    public void setUp() throws IOException {
+        byte[] data = new byte[size];
+        new Random(42).nextBytes(data);
+        file = Files.createTempFile("sha1-bench", ".bin");
+        Files.write(file, data);
+        artifact = new CTLauncher.Artifact("bench.bin", null, CTLauncher.sha1Of(file), size);
+    }
+    
+    @Benchmark
+    public String sha1Of() throws IOException {
+        return CTLauncher.sha1Of(file);
+    }
+    
+    // Size check plus hash, as done for every installed artifact by verify and repair
+    @Benchmark
+    public boolean intact() {
+        return CTLauncher.InstallCheck.intact(artifact, file, hashed);
+    }
+    
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+}
@@ -0,0 +1,118 @@
+package ctlauncher.bench;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Whole downloads through HttpDownloader from an in-process HTTP server on loopback, with the
+ * heap-buffer copy loop (download.transfer=stream) against the NIO path (nio). The 1 MB file
+ * goes as one hashed stream (copyDirect); the 32 MB one is fetched as byte-range chunks
+ * (transferFrom) and hashed afterwards. Throughput in MB/s is size / time per operation. The
+ * server runs in the same JVM, so the allocation figures include its side, which is the same
+ * for both paths.
+ *
+ * download.transfer is read once when HttpDownloader is initialized, so every trial needs its
+ * own fork; with -f 0 the setup refuses to run.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TransferBenchmark {
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d+)");
+    
+    @Param({"stream", "nio"})
+    public String transfer;
+    
+    @Param({"1048576", "33554432"})
+    public int size;
+    
+    private byte[] fixture;
+    private String sha1;
+    private HttpServer server;
+    private ExecutorService workers;
+    private Path dest;
+    
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        System.setProperty("ctlauncher.download.transfer", transfer);
+        if (CTLauncher.HttpDownloader.USE_NIO != transfer.equals("nio")) {
+            throw new IllegalStateException("HttpDownloader was initialized before this trial; run with forks");
+        }
+        fixture = new byte[size];
+        new Random(42).nextBytes(fixture);
+        sha1 = CTLauncher.toHex(java.security.MessageDigest.getInstance("SHA-1").digest(fixture));
+        
+        workers = Executors.newFixedThreadPool(8);
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(workers);
+        server.createContext("/fixture.bin", this::serve);
+        server.start();
+        System.setProperty("ctlauncher.http.redirect.bench.test", "http://127.0.0.1:" + server.getAddress().getPort());
+        dest = Files.createTempDirectory("transfer-bench").resolve("fixture.bin");
+    }
+    
+    // Each operation starts from nothing on disk
+    @Setup(Level.Invocation)
+    public void clear() throws IOException {
+        Files.deleteIfExists(dest);
+        CTLauncher.InstalledIndex.forget(dest);
+    }
+    
+    @Benchmark
+    public Path download() throws Exception {
+        CTLauncher.HttpDownloader.download("http://bench.test/fixture.bin", dest, sha1, size);
+        return dest;
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        server.stop(0);
+        workers.shutdown();
+        Files.deleteIfExists(dest);
+        Files.deleteIfExists(dest.getParent());
+    }
+    
+    private void serve(HttpExchange ex) throws IOException {
+        try {
+            ex.getResponseHeaders().set("Accept-Ranges", "bytes");
+            if ("HEAD".equals(ex.getRequestMethod())) {
+                ex.getResponseHeaders().set("Content-Length", String.valueOf(size));
+                ex.sendResponseHeaders(200, -1);
+                return;
+            }
+            int from = 0;
+            int to = size - 1;
+            String range = ex.getRequestHeaders().getFirst("Range");
+            Matcher m = range != null ? RANGE.matcher(range) : null;
+            if (m != null && m.matches()) {
+                from = Integer.parseInt(m.group(1));
+                to = Math.min(to, Integer.parseInt(m.group(2)));
+                ex.getResponseHeaders().set("Content-Range", "bytes " + from + "-" + to + "/" + size);
+                ex.sendResponseHeaders(206, to - from + 1);
+            } else {
+                ex.sendResponseHeaders(200, size);
+            }
+            try (OutputStream out = ex.getResponseBody()) {
+                out.write(fixture, from, to - from + 1);
+            }
+        } finally {
+            ex.close();
+        }
+    }
+}
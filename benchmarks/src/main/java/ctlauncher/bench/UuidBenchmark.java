@@ -0,0 +1,22 @@
+package ctlauncher.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/** Offline UUID derivation, done for every launch. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UuidBenchmark {
+    @Param({"Steve", "a_sixteen_chars_"})
+    public String username;
+    
+    @Benchmark
+    public String generateOfflineUUID() {
+        return CTLauncher.LauncherCore.generateOfflineUUID(username);
+    }
+}
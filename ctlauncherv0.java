@@ -19,10 +19,22 @@ import java.awt.event.*;
 import java.awt.geom.*;
 import java.io.*;
 import java.net.*;
+import java.net.http.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.security.*;
+import java.time.Duration;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+import java.util.regex.*;
+import java.util.zip.*;
 import javax.net.ssl.*;
 
 public class CTLauncher extends JFrame {
@@ -35,11 +47,17 @@ public class CTLauncher extends JFrame {
     private static final String LIBRARIES_DIR = CTLAUNCHER_DIR + "/libraries";
     private static final String JAVA_DIR = CTLAUNCHER_DIR + "/java";
     private static final String ASSETS_DIR = CTLAUNCHER_DIR + "/assets";
+    private static final String STORE_DIR = CTLAUNCHER_DIR + "/store";
+    private static final String CACHE_DIR = CTLAUNCHER_DIR + "/cache";
+    private static final String NATIVES_CACHE_DIR = CTLAUNCHER_DIR + "/natives";
+    private static final String ASSET_RESOURCES_URL = "https://resources.download.minecraft.net/";
     private static final String VERSION_MANIFEST_URL = "https://launchermeta.mojang.com/mc/game/version_manifest.json";
     
     private static final int MAX_RETRIES = 5;
     private static final int DOWNLOAD_TIMEOUT = 60000;
     private static final int RATE_LIMIT_DELAY = 100;
+    private static final int MAX_BACKOFF_DELAY = 10000;
+    private static final int PROGRESS_FRAME_MS = 16;
     
     // ═══════════════════════════════════════════════════════════════════════════════
     // THEME COLORS
@@ -58,6 +76,7 @@ public class CTLauncher extends JFrame {
     private JComboBox<String> themeCombo;
     private JSlider ramSlider;
     private JLabel ramLabel;
+    private JComboBox<String> jvmProfileCombo;
     private JLabel statusLabel;
     private JLabel progressLabel;
     private JProgressBar progressBar;
@@ -67,7 +86,25 @@ public class CTLauncher extends JFrame {
     // DATA
     // ═══════════════════════════════════════════════════════════════════════════════
     private Map<String, String> versions = new HashMap<>();
-    private Map<String, List<String>> versionCategories = new LinkedHashMap<>();
+    private Map<String, List<String>> versionCategories;
+    
+    private final ProgressCoalescer progressUpdates = new ProgressCoalescer();
+    private final LauncherCore core = new LauncherCore((version, percent, message) -> progressUpdates.post(percent, message), false);
+    private volatile boolean installComplete = false;
+    // Downloads the selected version ahead of PLAY; reports on the status bar when it is done
+    private final Prefetcher prefetcher = new Prefetcher((version, percent, message) ->
+        SwingUtilities.invokeLater(() -> statusLabel.setText(message)));
+    private static final DownloadScheduler downloadScheduler = new DownloadScheduler(
+        LauncherConfig.getInt("download.workers", Math.max(4, Math.min(16, Runtime.getRuntime().availableProcessors() * 2))),
+        LauncherConfig.getInt("download.perHost", 6));
+    private static final ArtifactStore artifactStore = new ArtifactStore(STORE_DIR);
+    // Shared pool for CPU-bound work (hash verification, unzip)
+    private static final ExecutorService cpuPool = Executors.newFixedThreadPool(
+        Math.max(2, Runtime.getRuntime().availableProcessors()), r -> {
+            Thread t = new Thread(r, "ctl-cpu");
+            t.setDaemon(true);
+            return t;
+        });
     
     // ═══════════════════════════════════════════════════════════════════════════════
     // CONSTRUCTOR
@@ -78,6 +115,21 @@ public class CTLauncher extends JFrame {
         
         initVersionCategories();
         initUI();
+        core.supervisor.setListener(new GameSupervisor.Listener() {
+            @Override
+            public void milestone(GameSupervisor.Session session, String name, long millis) {
+                if (!name.equals(GameSupervisor.WINDOW)) return;
+                SwingUtilities.invokeLater(() -> progressLabel.setText(
+                    String.format("Minecraft %s window opened in %.1f s", session.version, millis / 1000.0)));
+            }
+            
+            @Override
+            public void exited(GameSupervisor.Session session) {
+                // Built on the exit thread; the EDT only shows it
+                String summary = session.crashed() ? session.crashSummary() : null;
+                SwingUtilities.invokeLater(() -> gameExited(session, summary));
+            }
+        });
         
         // Fetch versions after UI is ready
         SwingUtilities.invokeLater(this::fetchVersions);
@@ -130,12 +182,18 @@ public class CTLauncher extends JFrame {
     }
     
     private void initVersionCategories() {
-        versionCategories.put("Latest Release", new ArrayList<>());
-        versionCategories.put("Latest Snapshot", new ArrayList<>());
-        versionCategories.put("Release", new ArrayList<>());
-        versionCategories.put("Snapshot", new ArrayList<>());
-        versionCategories.put("Old Beta", new ArrayList<>());
-        versionCategories.put("Old Alpha", new ArrayList<>());
+        versionCategories = newVersionCategories();
+    }
+    
+    static Map<String, List<String>> newVersionCategories() {
+        Map<String, List<String>> categories = new LinkedHashMap<>();
+        categories.put("Latest Release", new ArrayList<>());
+        categories.put("Latest Snapshot", new ArrayList<>());
+        categories.put("Release", new ArrayList<>());
+        categories.put("Snapshot", new ArrayList<>());
+        categories.put("Old Beta", new ArrayList<>());
+        categories.put("Old Alpha", new ArrayList<>());
+        return categories;
     }
     
     // ═══════════════════════════════════════════════════════════════════════════════
@@ -280,6 +338,11 @@ public class CTLauncher extends JFrame {
         versionCombo = new JComboBox<>();
         versionCombo.setMaximumSize(new Dimension(Integer.MAX_VALUE, 28));
         versionCombo.setAlignmentX(Component.LEFT_ALIGNMENT);
+        // Fires for the initial Latest Release pick too, once the manifest fills the list
+        versionCombo.addActionListener(e -> {
+            String selected = (String) versionCombo.getSelectedItem();
+            if (selected != null) prefetcher.select(selected, versions.get(selected));
+        });
         versionPanel.add(versionCombo);
         
         sidebar.add(versionPanel);
@@ -299,8 +362,24 @@ public class CTLauncher extends JFrame {
         ramSlider.setBackground(currentTheme.get("panel"));
         ramSlider.setMaximumSize(new Dimension(Integer.MAX_VALUE, 30));
         ramSlider.setAlignmentX(Component.LEFT_ALIGNMENT);
-        ramSlider.addChangeListener(e -> ramLabel.setText("RAM: " + ramSlider.getValue() + " GB"));
+        ramSlider.addChangeListener(e -> updateRamLabel());
         ramPanel.add(ramSlider);
+        ramPanel.add(Box.createVerticalStrut(4));
+        
+        JLabel gcLabel = new JLabel("JVM profile");
+        gcLabel.setFont(new Font("Segoe UI", Font.PLAIN, 9));
+        gcLabel.setForeground(currentTheme.get("textDim"));
+        gcLabel.setAlignmentX(Component.LEFT_ALIGNMENT);
+        ramPanel.add(gcLabel);
+        ramPanel.add(Box.createVerticalStrut(2));
+        
+        jvmProfileCombo = new JComboBox<>(JvmTuning.PROFILES.toArray(new String[0]));
+        jvmProfileCombo.setSelectedItem(JvmTuning.defaultProfile());
+        jvmProfileCombo.setToolTipText("GC and heap flags for the game; auto picks by available memory");
+        jvmProfileCombo.setMaximumSize(new Dimension(Integer.MAX_VALUE, 28));
+        jvmProfileCombo.setAlignmentX(Component.LEFT_ALIGNMENT);
+        ramPanel.add(jvmProfileCombo);
+        updateRamLabel();
         
         sidebar.add(ramPanel);
         sidebar.add(Box.createVerticalGlue());
@@ -324,6 +403,14 @@ public class CTLauncher extends JFrame {
         return sidebar;
     }
     
+    // Shows when the slider asks for more than one game can have on this machine
+    private void updateRamLabel() {
+        int budget = JvmTuning.budgetMb(LauncherConfig.getInt("jvm.instances", 1));
+        String text = "RAM: " + ramSlider.getValue() + " GB";
+        if (ramSlider.getValue() * 1024 > budget) text += String.format(" (fits: %.1f GB)", budget / 1024.0);
+        ramLabel.setText(text);
+    }
+    
     private JPanel createSectionPanel(String title) {
         JPanel panel = new JPanel();
         panel.setLayout(new BoxLayout(panel, BoxLayout.Y_AXIS));
@@ -425,83 +512,107 @@ public class CTLauncher extends JFrame {
         new SwingWorker<Void, Void>() {
             @Override
             protected Void doInBackground() throws Exception {
+                // Show the cached list immediately; the network refresh below replaces it if newer
+                String cached = ManifestCache.loadCached();
+                boolean haveCache = cached != null && publishManifest(cached, "Loaded %d cached versions, refreshing...");
+                
+                Metrics.Span span = Metrics.span("fetchVersions");
                 try {
-                    setupSSL();
-                    
-                    URL url = URI.create(VERSION_MANIFEST_URL).toURL();
-                    HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-                    conn.setConnectTimeout(30000);
-                    conn.setReadTimeout(30000);
-                    
-                    BufferedReader reader = new BufferedReader(new InputStreamReader(conn.getInputStream()));
-                    StringBuilder response = new StringBuilder();
-                    String line;
-                    while ((line = reader.readLine()) != null) {
-                        response.append(line);
+                    String fresh = ManifestCache.refresh();
+                    if (fresh != null) {
+                        publishManifest(fresh, "Loaded %d versions");
+                    } else {
+                        SwingUtilities.invokeLater(() -> statusLabel.setText("Loaded " + versions.size() + " versions (up to date)"));
                     }
-                    reader.close();
-                    
-                    parseVersionManifest(response.toString());
                     
                 } catch (Exception e) {
                     e.printStackTrace();
+                    if (haveCache) {
+                        SwingUtilities.invokeLater(() -> statusLabel.setText(
+                            "Offline - using cached list of " + versions.size() + " versions"));
+                        return null;
+                    }
                     SwingUtilities.invokeLater(() -> {
                         statusLabel.setText("Error: " + e.getMessage());
                         JOptionPane.showMessageDialog(CTLauncher.this, 
                             "Failed to fetch versions:\n" + e.getMessage(),
                             "Error", JOptionPane.ERROR_MESSAGE);
                     });
+                } finally {
+                    span.close();
                 }
                 return null;
             }
-            
-            @Override
-            protected void done() {
-                updateVersionList();
-                statusLabel.setText("Loaded " + versions.size() + " versions");
-            }
         }.execute();
     }
     
-    private void setupSSL() throws Exception {
-        TrustManager[] trustAllCerts = new TrustManager[]{
-            new X509TrustManager() {
-                public java.security.cert.X509Certificate[] getAcceptedIssuers() { return null; }
-                public void checkClientTrusted(java.security.cert.X509Certificate[] certs, String authType) {}
-                public void checkServerTrusted(java.security.cert.X509Certificate[] certs, String authType) {}
-            }
-        };
-        
-        SSLContext sc = SSLContext.getInstance("SSL");
-        sc.init(null, trustAllCerts, new java.security.SecureRandom());
-        HttpsURLConnection.setDefaultSSLSocketFactory(sc.getSocketFactory());
-        HttpsURLConnection.setDefaultHostnameVerifier((hostname, session) -> true);
-    }
-    
-    private void parseVersionManifest(String json) {
-        versions.clear();
-        for (List<String> list : versionCategories.values()) {
-            list.clear();
+    // Parses off the EDT, then swaps the version maps in on the EDT; false if the JSON is unusable
+    private boolean publishManifest(String json, String statusFormat) {
+        Map<String, String> newVersions = new HashMap<>();
+        Map<String, List<String>> newCategories = newVersionCategories();
+        Metrics.Span span = Metrics.span("parseVersionManifest");
+        try {
+            parseVersionManifest(json, newVersions, newCategories);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Ignoring malformed version manifest: " + e.getMessage());
+            return false;
+        } finally {
+            span.close();
         }
         
-        String latestRelease = extractJsonValue(json, "release");
-        String latestSnapshot = extractJsonValue(json, "snapshot");
-        
-        int versionsStart = json.indexOf("\"versions\"");
-        if (versionsStart == -1) return;
+        SwingUtilities.invokeLater(() -> {
+            versions = newVersions;
+            versionCategories = newCategories;
+            updateVersionList();
+            statusLabel.setText(String.format(statusFormat, newVersions.size()));
+        });
+        return true;
+    }
+    
+    static void parseVersionManifest(String json, Map<String, String> versions, Map<String, List<String>> versionCategories) {
+        // Single streaming pass; only id/type/url of each entry are materialized
+        String latestRelease = null;
+        String latestSnapshot = null;
+        List<String[]> entries = new ArrayList<>();
         
-        int arrayStart = json.indexOf("[", versionsStart);
-        int arrayEnd = findMatchingBracket(json, arrayStart);
-        String versionsArray = json.substring(arrayStart, arrayEnd + 1);
+        Json.Reader r = new Json.Reader(json);
+        r.beginObject();
+        while (r.hasNext()) {
+            String name = r.nextName();
+            if ("latest".equals(name)) {
+                r.beginObject();
+                while (r.hasNext()) {
+                    String key = r.nextName();
+                    if ("release".equals(key)) latestRelease = r.nextString();
+                    else if ("snapshot".equals(key)) latestSnapshot = r.nextString();
+                    else r.skipValue();
+                }
+                r.endObject();
+            } else if ("versions".equals(name)) {
+                r.beginArray();
+                while (r.hasNext()) {
+                    String id = null, type = null, versionUrl = null;
+                    r.beginObject();
+                    while (r.hasNext()) {
+                        String key = r.nextName();
+                        if ("id".equals(key)) id = r.nextString();
+                        else if ("type".equals(key)) type = r.nextString();
+                        else if ("url".equals(key)) versionUrl = r.nextString();
+                        else r.skipValue();
+                    }
+                    r.endObject();
+                    entries.add(new String[]{id, type, versionUrl});
+                }
+                r.endArray();
+            } else {
+                r.skipValue();
+            }
+        }
         
-        int pos = 0;
-        while ((pos = versionsArray.indexOf("{", pos)) != -1) {
-            int objEnd = findMatchingBrace(versionsArray, pos);
-            String versionObj = versionsArray.substring(pos, objEnd + 1);
-            
-            String id = extractJsonValue(versionObj, "id");
-            String type = extractJsonValue(versionObj, "type");
-            String versionUrl = extractJsonValue(versionObj, "url");
+        for (String[] entry : entries) {
+            String id = entry[0];
+            String type = entry[1];
+            String versionUrl = entry[2];
             
             if (id != null && versionUrl != null) {
                 versions.put(id, versionUrl);
@@ -523,53 +634,7 @@ public class CTLauncher extends JFrame {
                     versionCategories.get("Old Alpha").add(id);
                 }
             }
-            
-            pos = objEnd + 1;
-        }
-    }
-    
-    private String extractJsonValue(String json, String key) {
-        String pattern = "\"" + key + "\"";
-        int keyPos = json.indexOf(pattern);
-        if (keyPos == -1) return null;
-        
-        int colonPos = json.indexOf(":", keyPos);
-        if (colonPos == -1) return null;
-        
-        int valueStart = colonPos + 1;
-        while (valueStart < json.length() && Character.isWhitespace(json.charAt(valueStart))) {
-            valueStart++;
         }
-        
-        if (valueStart >= json.length()) return null;
-        
-        if (json.charAt(valueStart) == '"') {
-            int valueEnd = json.indexOf("\"", valueStart + 1);
-            if (valueEnd == -1) return null;
-            return json.substring(valueStart + 1, valueEnd);
-        }
-        
-        return null;
-    }
-    
-    private int findMatchingBracket(String s, int start) {
-        int count = 0;
-        for (int i = start; i < s.length(); i++) {
-            if (s.charAt(i) == '[') count++;
-            else if (s.charAt(i) == ']') count--;
-            if (count == 0) return i;
-        }
-        return s.length() - 1;
-    }
-    
-    private int findMatchingBrace(String s, int start) {
-        int count = 0;
-        for (int i = start; i < s.length(); i++) {
-            if (s.charAt(i) == '{') count++;
-            else if (s.charAt(i) == '}') count--;
-            if (count == 0) return i;
-        }
-        return s.length() - 1;
     }
     
     private void updateVersionList() {
@@ -577,13 +642,17 @@ public class CTLauncher extends JFrame {
         if (category == null) return;
         
         List<String> vers = versionCategories.get(category);
+        Object previous = versionCombo.getSelectedItem();
         versionCombo.removeAllItems();
         
         if (vers != null) {
             for (String v : vers) {
                 versionCombo.addItem(v);
             }
-            if (!vers.isEmpty()) {
+            // Keep the user's pick across a background refresh
+            if (previous != null && vers.contains(previous)) {
+                versionCombo.setSelectedItem(previous);
+            } else if (!vers.isEmpty()) {
                 versionCombo.setSelectedIndex(0);
             }
         }
@@ -593,18 +662,10 @@ public class CTLauncher extends JFrame {
     // LAUNCH LOGIC
     // ═══════════════════════════════════════════════════════════════════════════════
     private void prepareAndLaunch() {
-        createGameDirectories();
+        LauncherCore.createGameDirectories();
         downloadAndLaunch();
     }
     
-    private void createGameDirectories() {
-        new File(CTLAUNCHER_DIR).mkdirs();
-        new File(VERSIONS_DIR).mkdirs();
-        new File(LIBRARIES_DIR).mkdirs();
-        new File(ASSETS_DIR).mkdirs();
-        new File(JAVA_DIR).mkdirs();
-    }
-    
     private void downloadAndLaunch() {
         String version = (String) versionCombo.getSelectedItem();
         if (version == null || version.isEmpty()) {
@@ -612,8 +673,20 @@ public class CTLauncher extends JFrame {
             return;
         }
         
-        String username = validateUsername(usernameInput.getText());
+        // Whatever the background prefetch has in flight now runs uncapped
+        prefetcher.promote(version);
+        
+        String username = LauncherCore.validateUsername(usernameInput.getText());
         int ram = ramSlider.getValue();
+        String tuning = (String) jvmProfileCombo.getSelectedItem();
+        
+        // Warm start: a valid cached plan means everything is installed; spawn right away
+        List<String> plan = LaunchPlan.lookup(version, ram, tuning);
+        if (plan != null) {
+            spawnGame(version, LaunchPlan.resolve(plan, username, LauncherCore.generateOfflineUUID(username)));
+            return;
+        }
+        
         String versionUrl = versions.get(version);
         
         if (versionUrl == null) {
@@ -626,20 +699,26 @@ public class CTLauncher extends JFrame {
         progressBar.setValue(0);
         progressLabel.setText("Downloading " + version + "...");
         
+        // launch.early: the game starts once its critical files are in while the assets keep streaming
+        boolean early = LauncherConfig.getBool("launch.early", true);
         new SwingWorker<Boolean, Integer>() {
             private String versionJson = null;
             
             @Override
             protected Boolean doInBackground() throws Exception {
-                return downloadVersionFiles(version, versionUrl);
+                return downloadVersionFiles(version, versionUrl, !early ? null
+                    : () -> SwingUtilities.invokeLater(() -> launchGame(version, username, ram, tuning)));
             }
             
             @Override
             protected void done() {
                 try {
-                    if (get()) {
-                        String nativesDir = VERSIONS_DIR + "/" + version + "/natives";
-                        launchGame(version, username, ram, nativesDir);
+                    if (!get()) return;
+                    if (!early) {
+                        launchGame(version, username, ram, tuning);
+                    } else if (installComplete) {
+                        // Launched before the assets were in; now that they are, the plan can be cached
+                        LaunchPlan.save(version, ram, tuning, core.buildLaunchCommand(version, ram, tuning));
                     }
                 } catch (Exception e) {
                     e.printStackTrace();
@@ -653,195 +732,435 @@ public class CTLauncher extends JFrame {
         }.execute();
     }
     
-    private boolean downloadVersionFiles(String version, String versionUrl) {
-        String versionDir = VERSIONS_DIR + "/" + version;
-        new File(versionDir).mkdirs();
-        new File(versionDir + "/natives").mkdirs();
-        
+    private boolean downloadVersionFiles(String version, String versionUrl, LauncherCore.ReadyHook onReady) {
+        installComplete = false;
+        progressUpdates.start();
+        Metrics.Span span = Metrics.span("downloadVersionFiles", version);
         try {
-            setupSSL();
+            installComplete = core.install(version, versionUrl, onReady) == 0;
+            progressUpdates.post(100, "Download complete!");
+            return true;
             
-            // Download version JSON
-            String jsonPath = versionDir + "/" + version + ".json";
-            if (!new File(jsonPath).exists()) {
-                SwingUtilities.invokeLater(() -> progressLabel.setText("Downloading version info..."));
-                downloadFile(versionUrl, jsonPath);
+        } catch (Exception e) {
+            e.printStackTrace();
+            progressUpdates.post(-1, "Error: " + e.getMessage());
+            SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(CTLauncher.this,
+                "Failed to download:\n" + e.getMessage(),
+                "Download Error", JOptionPane.ERROR_MESSAGE));
+            return false;
+        } finally {
+            span.close();
+            progressUpdates.stop();
+        }
+    }
+    
+    private static void downloadFile(String urlStr, String destPath) throws Exception {
+        downloadFile(urlStr, destPath, null, -1);
+    }
+    
+    // Resumable, verified download; see HttpDownloader
+    private static void downloadFile(String urlStr, String destPath, String expectedSha1, long expectedSize) throws Exception {
+        HttpDownloader.download(urlStr, Paths.get(destPath), expectedSha1, expectedSize);
+    }
+    
+    static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+    
+    static void moveAtomically(Path src, Path dest) throws IOException {
+        try {
+            Files.move(src, dest, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(src, dest, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+    
+    static void linkOrCopy(Path src, Path target) throws IOException {
+        if (target.getParent() != null) Files.createDirectories(target.getParent());
+        if (Files.exists(target) && Files.isSameFile(src, target)) return;
+        Files.deleteIfExists(target);
+        InstallStamp.markChanged();
+        try {
+            Files.createLink(target, src);
+        } catch (UnsupportedOperationException | IOException e) {
+            // Different volume or no hard-link support: fall back to a plain copy
+            Files.copy(src, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+    
+    static String sha1Of(Path file) throws IOException {
+        Metrics.Span span = Metrics.span("sha1");
+        try (InputStream in = Files.newInputStream(file)) {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            byte[] buffer = new byte[65536];
+            long total = 0;
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                md.update(buffer, 0, n);
+                total += n;
             }
-            
-            SwingUtilities.invokeLater(() -> progressBar.setValue(10));
-            
-            // Read version data
-            String jsonContent = new String(Files.readAllBytes(Paths.get(jsonPath)));
-            
-            // Download client JAR
-            String jarUrl = extractNestedJsonValue(jsonContent, "downloads", "client", "url");
-            String jarPath = versionDir + "/" + version + ".jar";
-            if (jarUrl != null && !new File(jarPath).exists()) {
-                SwingUtilities.invokeLater(() -> progressLabel.setText("Downloading " + version + ".jar..."));
-                downloadFile(jarUrl, jarPath);
+            Metrics.count("hash.bytes", total);
+            return toHex(md.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            span.close();
+        }
+    }
+    
+    // ═══════════════════════════════════════════════════════════════════════════════
+    // LAUNCH GAME
+    // ═══════════════════════════════════════════════════════════════════════════════
+    private void launchGame(String version, String username, int ram, String tuning) {
+        Metrics.Span span = Metrics.span("launchGame", version);
+        try {
+            List<String> cmd = core.buildLaunchCommand(version, ram, tuning);
+            // Only a complete install may be replayed without re-checking downloads
+            if (installComplete) {
+                LaunchPlan.save(version, ram, tuning, cmd);
             }
+            spawnGame(version, LaunchPlan.resolve(cmd, username, LauncherCore.generateOfflineUUID(username)));
+        } catch (Exception e) {
+            e.printStackTrace();
+            JOptionPane.showMessageDialog(this, "Error launching:\n" + e.getMessage(),
+                "Error", JOptionPane.ERROR_MESSAGE);
+        } finally {
+            span.close();
+        }
+    }
+    
+    private void gameExited(GameSupervisor.Session session, String crashSummary) {
+        if (crashSummary == null) {
+            progressLabel.setText("Minecraft " + session.version + " closed");
+            return;
+        }
+        progressLabel.setText("Minecraft " + session.version + " crashed (exit code " + session.exitCode + ")");
+        JTextArea text = new JTextArea(crashSummary, 20, 80);
+        text.setEditable(false);
+        text.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 11));
+        text.setCaretPosition(0);
+        JOptionPane.showMessageDialog(this, new JScrollPane(text), "Game Crashed", JOptionPane.ERROR_MESSAGE);
+    }
+    
+    private void spawnGame(String version, List<String> cmd) {
+        try {
+            statusLabel.setText("Launching Minecraft " + version + "...");
+            System.out.println("🚀 Launching: " + String.join(" ", cmd));
             
-            SwingUtilities.invokeLater(() -> progressBar.setValue(30));
-            
-            // Download ALL libraries - THIS IS THE KEY FIX!
-            SwingUtilities.invokeLater(() -> progressLabel.setText("Downloading libraries..."));
-            downloadLibraries(jsonContent);
-            
-            SwingUtilities.invokeLater(() -> {
-                progressBar.setValue(100);
-                progressLabel.setText("Download complete!");
-            });
+            core.spawn(version, cmd);
             
-            return true;
+            progressLabel.setText("Game launched!");
             
         } catch (Exception e) {
             e.printStackTrace();
-            SwingUtilities.invokeLater(() -> {
-                progressLabel.setText("Error: " + e.getMessage());
-                JOptionPane.showMessageDialog(CTLauncher.this,
-                    "Failed to download:\n" + e.getMessage(),
-                    "Download Error", JOptionPane.ERROR_MESSAGE);
-            });
-            return false;
+            JOptionPane.showMessageDialog(this, "Error launching:\n" + e.getMessage(),
+                "Error", JOptionPane.ERROR_MESSAGE);
         }
     }
-    
+
     // ═══════════════════════════════════════════════════════════════════════════════
-    // LIBRARY DOWNLOAD - THE KEY FIX!
-    // ═══════════════════════════════════════════════════════════════════════════════
-    private void downloadLibraries(String jsonContent) {
-        // Find libraries array
-        int libStart = jsonContent.indexOf("\"libraries\"");
-        if (libStart == -1) return;
-        
-        int arrayStart = jsonContent.indexOf("[", libStart);
-        if (arrayStart == -1) return;
-        int arrayEnd = findMatchingBracket(jsonContent, arrayStart);
-        String librariesArray = jsonContent.substring(arrayStart, arrayEnd + 1);
-        
-        // Count libraries for progress
-        List<String[]> libsToDownload = new ArrayList<>();
-        
-        int pos = 0;
-        while ((pos = librariesArray.indexOf("{", pos)) != -1) {
-            int objEnd = findMatchingBrace(librariesArray, pos);
-            String libObj = librariesArray.substring(pos, objEnd + 1);
-            
-            // Check for downloads.artifact
-            int downloadsPos = libObj.indexOf("\"downloads\"");
-            if (downloadsPos != -1) {
-                int artifactPos = libObj.indexOf("\"artifact\"", downloadsPos);
-                if (artifactPos != -1) {
-                    String artifactPath = extractJsonValue(libObj.substring(artifactPos), "path");
-                    String artifactUrl = extractJsonValue(libObj.substring(artifactPos), "url");
-                    
-                    if (artifactPath != null && artifactUrl != null) {
-                        libsToDownload.add(new String[]{artifactPath, artifactUrl});
-                    }
+    // LAUNCHER CORE
+    // ═══════════════════════════════════════════════════════════════════════════════
+    // Install, verify and launch with no Swing dependency; shared by the window and the headless
+    // CLI. Progress is reported per version and the listener may be called from any thread.
+    static class LauncherCore {
+        interface ProgressListener {
+            // message is null when only the percentage moved
+            void progress(String version, int percent, String message);
+        }
+        
+        private final ProgressListener listener;
+        // Headless launches write the game's output to logs/<version>.log instead of the console
+        private final boolean logToFile;
+        // Games launched with their output captured (logToFile sends it straight to a file instead)
+        final GameSupervisor supervisor = new GameSupervisor();
+        
+        LauncherCore(ProgressListener listener, boolean logToFile) {
+            this.listener = listener;
+            this.logToFile = logToFile;
+        }
+        
+        static void createGameDirectories() {
+            new File(CTLAUNCHER_DIR).mkdirs();
+            new File(VERSIONS_DIR).mkdirs();
+            new File(LIBRARIES_DIR).mkdirs();
+            new File(ASSETS_DIR).mkdirs();
+            new File(JAVA_DIR).mkdirs();
+            new File(STORE_DIR).mkdirs();
+        }
+        
+        // Version id -> version JSON url; falls back to the cached manifest when offline
+        static Map<String, String> loadVersions(Map<String, List<String>> categories) throws IOException {
+            Metrics.Span span = Metrics.span("fetchVersions");
+            try {
+                String json;
+                try {
+                    json = ManifestCache.refresh();
+                    if (json == null) json = ManifestCache.loadCached();
+                } catch (IOException e) {
+                    json = ManifestCache.loadCached();
+                    if (json == null) throw e;
                 }
+                if (json == null) throw new FileNotFoundException("No version manifest available");
                 
-                // Also check for classifiers (natives)
-                int classifiersPos = libObj.indexOf("\"classifiers\"", downloadsPos);
-                if (classifiersPos != -1) {
-                    // Find natives for current OS
-                    String osName = getOsName();
-                    String nativeKey = "natives-" + osName;
-                    
-                    int nativePos = libObj.indexOf("\"" + nativeKey + "\"", classifiersPos);
-                    if (nativePos != -1) {
-                        String nativePath = extractJsonValue(libObj.substring(nativePos), "path");
-                        String nativeUrl = extractJsonValue(libObj.substring(nativePos), "url");
-                        
-                        if (nativePath != null && nativeUrl != null) {
-                            libsToDownload.add(new String[]{nativePath, nativeUrl});
-                        }
-                    }
+                Map<String, String> versions = new HashMap<>();
+                Metrics.Span parse = Metrics.span("parseVersionManifest");
+                try {
+                    parseVersionManifest(json, versions, categories);
+                } finally {
+                    parse.close();
                 }
+                return versions;
+            } finally {
+                span.close();
             }
-            
-            pos = objEnd + 1;
         }
         
-        // Download libraries
-        int total = libsToDownload.size();
-        int current = 0;
+        static Path logPath(String version) {
+            return Paths.get(CTLAUNCHER_DIR, "logs", version + ".log");
+        }
+        
+        // ── Install ──
         
-        for (String[] lib : libsToDownload) {
-            String path = lib[0];
-            String url = lib[1];
-            String fullPath = LIBRARIES_DIR + "/" + path;
+        // Fetches everything the version needs; returns how many artifacts could not be downloaded
+        int install(String version, String versionUrl) throws Exception {
+            return install(version, versionUrl, null);
+        }
+        
+        // Called once the game can start; the install carries on with the asset objects
+        interface ReadyHook {
+            void ready() throws Exception;
+        }
+        
+        // Work goes in the order the game needs it: version JSON, then the client jar and classpath
+        // libraries with the natives jars queued behind them, the Java runtime, extracted natives
+        // and the asset index. onReady (if given) runs at that point and the asset objects, which
+        // the game loads lazily, stream in behind it; versions that read assets by name from disk
+        // (pre-1.7) get onReady only once those are laid out.
+        int install(String version, String versionUrl, ReadyHook onReady) throws Exception {
+            String versionDir = VERSIONS_DIR + "/" + version;
+            String jsonPath = versionDir + "/" + version + ".json";
+            if (versionUrl == null && !new File(jsonPath).exists()) {
+                throw new FileNotFoundException("Unknown version " + version);
+            }
+            new File(versionDir).mkdirs();
+            new File(versionDir + "/natives").mkdirs();
             
-            File libFile = new File(fullPath);
-            if (!libFile.exists()) {
-                try {
-                    libFile.getParentFile().mkdirs();
-                    downloadFile(url, fullPath);
-                    Thread.sleep(RATE_LIMIT_DELAY); // Rate limit
-                } catch (Exception e) {
-                    System.err.println("Failed to download: " + path + " - " + e.getMessage());
+            long start = System.nanoTime();
+            Metrics.Span span = Metrics.span("install", version);
+            try {
+                // Download version JSON
+                if (!new File(jsonPath).exists()) {
+                    listener.progress(version, 0, "Downloading version info...");
+                    downloadFile(versionUrl, jsonPath);
+                }
+                
+                listener.progress(version, 10, null);
+                
+                // Read version data (parsed once, shared with buildLaunchCommand)
+                VersionProfile profile = VersionProfile.load(Paths.get(jsonPath));
+                
+                // Client JAR (verified against downloads.client.sha1) and ALL libraries in one batch
+                listener.progress(version, 10, "Downloading game files...");
+                int failures = downloadLibraries(profile, version);
+                Rules.writeReport(profile, Rules.CURRENT, Paths.get(versionDir, "skipped-artifacts.txt"));
+                
+                // The JVM this version asks for; runtimes are shared between versions
+                int major = JavaRuntimes.requiredMajor(profile);
+                listener.progress(version, 50, "Preparing Java " + major + "...");
+                failures += JavaRuntimes.install(profile, downloadScheduler, (done, total) ->
+                    listener.progress(version, 50 + (10 * done / Math.max(1, total)),
+                        "Installing Java " + major + "... (" + done + "/" + total + ")"));
+                
+                listener.progress(version, 60, "Extracting natives...");
+                extractNatives(profile, version);
+                
+                // Sounds, languages and textures referenced by the asset index
+                AssetSync.AssetIndex assets = null;
+                if (profile.assetIndex != null) {
+                    listener.progress(version, 65, "Checking assets...");
+                    assets = AssetSync.loadIndex(profile);
                 }
+                boolean streamAssets = assets == null || !assets.needsNamedCopies();
+                if (onReady != null && streamAssets) {
+                    Metrics.record("install.ready", System.nanoTime() - start);
+                    onReady.ready();
+                }
+                
+                if (assets != null) failures += syncAssets(profile, assets, version);
+                if (onReady != null && !streamAssets) {
+                    Metrics.record("install.ready", System.nanoTime() - start);
+                    onReady.ready();
+                }
+                
+                listener.progress(version, 100, null);
+                return failures;
+            } finally {
+                span.close();
+                InstallStamp.flush();
+                InstalledIndex.save();
             }
+        }
+        
+        // ── Libraries ──
+        
+        // Library and native artifacts this platform needs: classpath artifacts first, then natives
+        static List<Artifact> librariesToDownload(VersionProfile profile) {
+            List<Artifact> libsToDownload = new ArrayList<>();
+            List<Artifact> nativesToDownload = new ArrayList<>();
             
-            current++;
-            final int progress = 30 + (60 * current / total);
-            final int cur = current;
-            SwingUtilities.invokeLater(() -> {
-                progressBar.setValue(progress);
-                progressLabel.setText("Downloading libraries... (" + cur + "/" + total + ")");
-            });
+            for (VersionProfile.Library lib : profile.libraries) {
+                // Other platforms' artifacts are never fetched (see skipped-artifacts.txt)
+                if (!Rules.includes(lib, Rules.CURRENT)) continue;
+                
+                // Check for downloads.artifact
+                if (lib.artifact != null) {
+                    libsToDownload.add(lib.artifact);
+                }
+                
+                // Also check for classifiers (natives for current OS)
+                Artifact natives = nativeArtifact(lib);
+                if (natives != null) {
+                    nativesToDownload.add(natives);
+                }
+            }
+            libsToDownload.addAll(nativesToDownload);
+            return libsToDownload;
         }
-    }
-    
-    private String getOsName() {
-        String os = System.getProperty("os.name").toLowerCase();
-        if (os.contains("win")) return "windows";
-        if (os.contains("mac")) return "osx";
-        return "linux";
-    }
-    
-    private void downloadFile(String urlStr, String destPath) throws Exception {
-        URL url = URI.create(urlStr).toURL();
-        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-        conn.setConnectTimeout(DOWNLOAD_TIMEOUT);
-        conn.setReadTimeout(DOWNLOAD_TIMEOUT);
-        conn.setRequestProperty("User-Agent", "CTLauncher/1.0");
         
-        new File(destPath).getParentFile().mkdirs();
+        // Client jar, libraries and natives jars as one batch, queued in that order; returns the
+        // number of artifacts that failed to download
+        private int downloadLibraries(VersionProfile profile, String version) throws Exception {
+            Metrics.Span span = Metrics.span("downloadLibraries", version);
+            try {
+                List<DownloadScheduler.Job> wanted = new ArrayList<>();
+                if (profile.client != null) {
+                    wanted.add(new DownloadScheduler.Job(profile.client, VERSIONS_DIR + "/" + version + "/" + version + ".jar"));
+                }
+                for (Artifact lib : librariesToDownload(profile)) {
+                    wanted.add(new DownloadScheduler.Job(lib, LIBRARIES_DIR + "/" + lib.path));
+                }
+                
+                // Download libraries in parallel
+                int total = wanted.size();
+                if (total == 0) return 0;
+                
+                List<DownloadScheduler.Job> jobs = new ArrayList<>();
+                for (DownloadScheduler.Job job : wanted) {
+                    if (!artifactStore.isInstalled(job.artifact, Paths.get(job.destPath))) {
+                        jobs.add(job);
+                    }
+                }
+                
+                int alreadyPresent = total - jobs.size();
+                List<DownloadScheduler.Job> failed = downloadScheduler.runAll(jobs,
+                    job -> artifactStore.install(job.artifact, Paths.get(job.destPath)), done -> {
+                    int cur = alreadyPresent + done;
+                    listener.progress(version, 10 + (40 * cur / total), "Downloading game files... (" + cur + "/" + total + ")");
+                });
+                for (DownloadScheduler.Job job : failed) {
+                    System.err.println("Failed to download: " + job.destPath + " - " + job.error.getMessage());
+                }
+                return failed.size();
+            } finally {
+                span.close();
+            }
+        }
         
-        try (InputStream in = conn.getInputStream();
-             FileOutputStream out = new FileOutputStream(destPath)) {
-            byte[] buffer = new byte[8192];
-            int bytesRead;
-            while ((bytesRead = in.read(buffer)) != -1) {
-                out.write(buffer, 0, bytesRead);
+        // The natives classifier for this OS: the library's natives map (with ${arch}) or natives-<os>
+        static Artifact nativeArtifact(VersionProfile.Library lib) {
+            String classifier = lib.natives.get(Rules.CURRENT.osName);
+            if (classifier != null) {
+                classifier = classifier.replace("${arch}", Rules.CURRENT.osArch.equals("x86") ? "32" : "64");
+            } else {
+                classifier = "natives-" + Rules.CURRENT.osName;
             }
+            return lib.classifiers.get(classifier);
         }
-    }
-    
-    private String extractNestedJsonValue(String json, String... keys) {
-        String current = json;
-        for (int i = 0; i < keys.length - 1; i++) {
-            int keyPos = current.indexOf("\"" + keys[i] + "\"");
-            if (keyPos == -1) return null;
-            int bracePos = current.indexOf("{", keyPos);
-            if (bracePos == -1) return null;
-            int braceEnd = findMatchingBrace(current, bracePos);
-            current = current.substring(bracePos, braceEnd + 1);
-        }
-        return extractJsonValue(current, keys[keys.length - 1]);
-    }
-    
-    // ═══════════════════════════════════════════════════════════════════════════════
-    // LAUNCH GAME
-    // ═══════════════════════════════════════════════════════════════════════════════
-    private void launchGame(String version, String username, int ram, String nativesDir) {
-        try {
+        
+        // Unpacks classifier natives jars (pre-1.19 LWJGL) into the version's natives directory
+        private void extractNatives(VersionProfile profile, String version) throws Exception {
+            List<NativesExtractor.Jar> jars = new ArrayList<>();
+            for (VersionProfile.Library lib : profile.libraries) {
+                if (!Rules.includes(lib, Rules.CURRENT)) continue;
+                Artifact natives = nativeArtifact(lib);
+                if (natives != null) {
+                    jars.add(new NativesExtractor.Jar(natives, Paths.get(LIBRARIES_DIR, natives.path), lib.extractExclude));
+                }
+            }
+            if (!jars.isEmpty()) {
+                NativesExtractor.extractAll(jars, Paths.get(VERSIONS_DIR, version, "natives"));
+            }
+        }
+        
+        private int syncAssets(VersionProfile profile, AssetSync.AssetIndex index, String version) throws Exception {
+            List<DownloadScheduler.Job> failed = AssetSync.sync(profile, index, downloadScheduler,
+                (verified, unique, downloaded, missing) -> {
+                    int done = verified + downloaded;
+                    int total = unique + missing;
+                    listener.progress(version, 70 + (30 * done / Math.max(1, total)),
+                        "Syncing assets... (" + verified + "/" + unique + " checked, "
+                            + downloaded + "/" + missing + " downloaded)");
+                });
+            for (DownloadScheduler.Job job : failed) {
+                System.err.println("Failed to download asset: " + job.artifact.path + " - " + job.error.getMessage());
+            }
+            return failed.size();
+        }
+        
+        // ── Verify ──
+        
+        // Re-hashes every installed file the version needs without downloading anything (see
+        // InstallCheck); the report counts the missing or corrupt ones
+        InstallCheck.Report verify(String version) throws Exception {
+            Metrics.Span span = Metrics.span("verify", version);
+            try {
+                Path jsonPath = Paths.get(VERSIONS_DIR, version, version + ".json");
+                if (!Files.exists(jsonPath)) throw new FileNotFoundException(version + " is not installed");
+                return InstallCheck.run(Collections.singletonMap(version, VersionProfile.load(jsonPath)), false,
+                    (checked, total, message) -> listener.progress(version, total == 0 ? 100 : 100 * checked / total, message));
+            } finally {
+                span.close();
+            }
+        }
+        
+        // ── Launch ──
+        
+        // Starts the game, replaying the cached launch plan when it is still valid
+        Process launch(String version, String versionUrl, String username, int ram, String tuning) throws Exception {
+            Metrics.Span span = Metrics.span("launch", version);
+            try {
+                List<String> cmd = LaunchPlan.lookup(version, ram, tuning);
+                if (cmd != null) return spawn(version, LaunchPlan.resolve(cmd, username, generateOfflineUUID(username)));
+                
+                // launch.early: the game starts once its critical files are in and install() returns
+                // after the assets; either way this only returns when everything has been fetched
+                List<Process> game = new ArrayList<>(1);
+                ReadyHook start = () -> game.add(spawn(version,
+                    LaunchPlan.resolve(buildLaunchCommand(version, ram, tuning), username, generateOfflineUUID(username))));
+                boolean early = LauncherConfig.getBool("launch.early", true);
+                boolean complete = install(version, versionUrl, early ? start : null) == 0;
+                if (complete) LaunchPlan.save(version, ram, tuning, buildLaunchCommand(version, ram, tuning));
+                if (game.isEmpty()) start.ready();
+                return game.get(0);
+            } finally {
+                span.close();
+            }
+        }
+        
+        // Full command with the player name and UUID left as LaunchPlan placeholders
+        List<String> buildLaunchCommand(String version, int ram, String tuning) throws IOException {
             String versionDir = VERSIONS_DIR + "/" + version;
             String jsonPath = versionDir + "/" + version + ".json";
             String jarPath = versionDir + "/" + version + ".jar";
+            String nativesDir = versionDir + "/natives";
             
-            String jsonContent = new String(Files.readAllBytes(Paths.get(jsonPath)));
-            String mainClass = extractJsonValue(jsonContent, "mainClass");
+            VersionProfile profile = VersionProfile.load(Paths.get(jsonPath));
+            String mainClass = profile.mainClass;
             if (mainClass == null) mainClass = "net.minecraft.client.main.Main";
             
             // Build FULL classpath with ALL libraries
@@ -849,18 +1168,24 @@ public class CTLauncher extends JFrame {
             classpathList.add(jarPath);
             
             // Add all libraries to classpath
-            addLibrariesToClasspath(jsonContent, classpathList);
+            addLibrariesToClasspath(profile, classpathList);
             
             String sep = System.getProperty("os.name").toLowerCase().contains("win") ? ";" : ":";
             String classpath = String.join(sep, classpathList);
             
             // Build command
             List<String> cmd = new ArrayList<>();
-            cmd.add("java");
-            cmd.add("-Xmx" + ram + "G");
+            cmd.add(JavaRuntimes.javaExecutable(profile));
             
-            // JVM args from version JSON
-            addJvmArgs(jsonContent, cmd, nativesDir);
+            // Planned heap and GC profile, merged with the JVM args from version JSON
+            Path java = JavaRuntimes.locate(cmd.get(0));
+            int runtimeMajor = java != null ? JavaRuntimes.majorOf(java) : 0;
+            if (runtimeMajor == 0) runtimeMajor = JavaRuntimes.requiredMajor(profile);
+            int heapMb = JvmTuning.plannedHeapMb(ram, JavaRuntimes.requiredMajor(profile),
+                LauncherConfig.getInt("jvm.instances", 1));
+            List<String> versionArgs = new ArrayList<>();
+            addJvmArgs(profile, versionArgs, nativesDir);
+            cmd.addAll(JvmTuning.merge(JvmTuning.flags(tuning, heapMb, runtimeMajor), versionArgs));
             
             // Offline mode
             cmd.add("-Dminecraft.api.auth.host=http://0.0.0.0");
@@ -881,150 +1206,129 @@ public class CTLauncher extends JFrame {
             cmd.add(mainClass);
             
             // Game arguments
-            String uuid = generateOfflineUUID(username);
-            String assetIndex = extractNestedJsonValue(jsonContent, "assetIndex", "id");
+            String assetIndex = profile.assetIndexId;
             if (assetIndex == null) assetIndex = "legacy";
             
-            cmd.add("--username"); cmd.add(username);
+            cmd.add("--username"); cmd.add(LaunchPlan.USERNAME);
             cmd.add("--version"); cmd.add(version);
             cmd.add("--gameDir"); cmd.add(CTLAUNCHER_DIR);
             cmd.add("--assetsDir"); cmd.add(ASSETS_DIR);
             cmd.add("--assetIndex"); cmd.add(assetIndex);
-            cmd.add("--uuid"); cmd.add(uuid);
+            cmd.add("--uuid"); cmd.add(LaunchPlan.UUID);
             cmd.add("--accessToken"); cmd.add("0");
             cmd.add("--userType"); cmd.add("legacy");
             
-            statusLabel.setText("Launching Minecraft " + version + "...");
-            System.out.println("🚀 Launching: " + String.join(" ", cmd));
-            
-            ProcessBuilder pb = new ProcessBuilder(cmd);
+            return cmd;
+        }
+        
+        // CDS flags are added here rather than in the plan: they change once the archive exists
+        Process spawn(String version, List<String> cmd) throws IOException {
+            cmd = JvmTuning.fitRunning(cmd);
+            Path archive = ClassDataSharing.archiveFor(version, cmd);
+            ClassDataSharing.Mode mode = ClassDataSharing.modeFor(archive);
+            ProcessBuilder pb = new ProcessBuilder(ClassDataSharing.withArchive(version, cmd, archive));
             pb.directory(new File(CTLAUNCHER_DIR));
-            pb.inheritIO();
-            pb.start();
-            
-            progressLabel.setText("Game launched!");
-            
-        } catch (Exception e) {
-            e.printStackTrace();
-            JOptionPane.showMessageDialog(this, "Error launching:\n" + e.getMessage(),
-                "Error", JOptionPane.ERROR_MESSAGE);
+            if (logToFile) {
+                Path log = logPath(version);
+                Files.createDirectories(log.getParent());
+                pb.redirectErrorStream(true);
+                pb.redirectOutput(log.toFile());
+            } else {
+                pb.redirectErrorStream(true);
+                pb.redirectInput(ProcessBuilder.Redirect.INHERIT);
+            }
+            long start = System.nanoTime();
+            Process game;
+            Metrics.Span span = Metrics.span("spawn", version);
+            try {
+                game = pb.start();
+            } finally {
+                span.close();
+            }
+            if (!logToFile) supervisor.attach(version, game, start, mode);
+            return game;
         }
-    }
-    
-    private void addLibrariesToClasspath(String jsonContent, List<String> classpathList) {
-        int libStart = jsonContent.indexOf("\"libraries\"");
-        if (libStart == -1) return;
-        
-        int arrayStart = jsonContent.indexOf("[", libStart);
-        if (arrayStart == -1) return;
-        int arrayEnd = findMatchingBracket(jsonContent, arrayStart);
-        String librariesArray = jsonContent.substring(arrayStart, arrayEnd + 1);
-        
-        int pos = 0;
-        while ((pos = librariesArray.indexOf("{", pos)) != -1) {
-            int objEnd = findMatchingBrace(librariesArray, pos);
-            String libObj = librariesArray.substring(pos, objEnd + 1);
-            
-            // Check for downloads.artifact
-            int downloadsPos = libObj.indexOf("\"downloads\"");
-            if (downloadsPos != -1) {
-                int artifactPos = libObj.indexOf("\"artifact\"", downloadsPos);
-                if (artifactPos != -1) {
-                    String artifactPath = extractJsonValue(libObj.substring(artifactPos), "path");
-                    if (artifactPath != null) {
-                        String fullPath = LIBRARIES_DIR + "/" + artifactPath;
-                        if (new File(fullPath).exists()) {
-                            classpathList.add(fullPath);
-                        }
+        
+        void addLibrariesToClasspath(VersionProfile profile, List<String> classpathList) {
+            for (VersionProfile.Library lib : profile.libraries) {
+                if (!Rules.includes(lib, Rules.CURRENT)) continue;
+                // Check for downloads.artifact
+                if (lib.artifact != null) {
+                    String fullPath = LIBRARIES_DIR + "/" + lib.artifact.path;
+                    if (InstalledIndex.contains(Paths.get(fullPath)) || new File(fullPath).exists()) {
+                        classpathList.add(fullPath);
                     }
                 }
             }
-            
-            pos = objEnd + 1;
         }
-    }
-    
-    private void addJvmArgs(String jsonContent, List<String> cmd, String nativesDir) {
-        // Check for arguments.jvm
-        int argsPos = jsonContent.indexOf("\"arguments\"");
-        if (argsPos != -1) {
-            int jvmPos = jsonContent.indexOf("\"jvm\"", argsPos);
-            if (jvmPos != -1) {
-                int arrayStart = jsonContent.indexOf("[", jvmPos);
-                if (arrayStart != -1) {
-                    int arrayEnd = findMatchingBracket(jsonContent, arrayStart);
-                    String jvmArray = jsonContent.substring(arrayStart + 1, arrayEnd);
+        
+        void addJvmArgs(VersionProfile profile, List<String> cmd, String nativesDir) {
+            // Check for arguments.jvm
+            List<String> candidates = new ArrayList<>();
+            for (VersionProfile.Argument entry : profile.jvmArguments) {
+                if (Rules.allows(entry.rules, Rules.CURRENT)) {
+                    candidates.addAll(entry.values);
+                }
+            }
+            
+            for (String arg : candidates) {
+                if (!arg.isEmpty() && (arg.startsWith("-") || arg.startsWith("$"))) {
+                    // Replace placeholders
+                    arg = arg.replace("${natives_directory}", nativesDir);
+                    arg = arg.replace("${launcher_name}", "CTLauncher");
+                    arg = arg.replace("${launcher_version}", "1.0.4");
+                    arg = arg.replace("${classpath}", ""); // Skip this one
                     
-                    // Simple extraction of string arguments
-                    int strPos = 0;
-                    while ((strPos = jvmArray.indexOf("\"", strPos)) != -1) {
-                        int strEnd = jvmArray.indexOf("\"", strPos + 1);
-                        if (strEnd == -1) break;
-                        
-                        String arg = jvmArray.substring(strPos + 1, strEnd);
-                        
-                        // Skip if it's a key name or special value
-                        if (!arg.isEmpty() && (arg.startsWith("-") || arg.startsWith("$"))) {
-                            // Replace placeholders
-                            arg = arg.replace("${natives_directory}", nativesDir);
-                            arg = arg.replace("${launcher_name}", "CTLauncher");
-                            arg = arg.replace("${launcher_version}", "1.0.4");
-                            arg = arg.replace("${classpath}", ""); // Skip this one
-                            
-                            if (!arg.contains("${") && !arg.isEmpty() && !arg.equals("-cp")) {
-                                cmd.add(arg);
-                            }
-                        }
-                        
-                        strPos = strEnd + 1;
+                    if (!arg.contains("${") && !arg.isEmpty() && !arg.equals("-cp")) {
+                        cmd.add(arg);
                     }
                 }
             }
+            
+            // Ensure native library path is set
+            boolean hasNativePath = false;
+            for (String arg : cmd) {
+                if (arg.contains("-Djava.library.path=")) {
+                    hasNativePath = true;
+                    break;
+                }
+            }
+            if (!hasNativePath) {
+                cmd.add("-Djava.library.path=" + nativesDir);
+            }
         }
         
-        // Ensure native library path is set
-        boolean hasNativePath = false;
-        for (String arg : cmd) {
-            if (arg.contains("-Djava.library.path=")) {
-                hasNativePath = true;
-                break;
+        static String validateUsername(String username) {
+            if (username == null || !username.matches("^[a-zA-Z0-9_]+$")) {
+                return "Player";
             }
+            return username;
         }
-        if (!hasNativePath) {
-            cmd.add("-Djava.library.path=" + nativesDir);
-        }
-    }
-    
-    private String validateUsername(String username) {
-        if (username == null || !username.matches("^[a-zA-Z0-9_]+$")) {
-            return "Player";
+        
+        static String generateOfflineUUID(String username) {
+            try {
+                MessageDigest md = MessageDigest.getInstance("MD5");
+                byte[] digest = md.digest(("OfflinePlayer:" + username).getBytes());
+                
+                digest[6] = (byte) ((digest[6] & 0x0f) | 0x30);
+                digest[8] = (byte) ((digest[8] & 0x3f) | 0x80);
+                
+                StringBuilder sb = new StringBuilder();
+                for (byte b : digest) {
+                    sb.append(String.format("%02x", b));
+                }
+                String hex = sb.toString();
+                
+                return hex.substring(0, 8) + "-" + hex.substring(8, 12) + "-" +
+                       hex.substring(12, 16) + "-" + hex.substring(16, 20) + "-" +
+                       hex.substring(20, 32);
+                       
+            } catch (Exception e) {
+                return "00000000-0000-0000-0000-000000000000";
+            }
         }
-        return username;
     }
-    
-    private String generateOfflineUUID(String username) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("MD5");
-            byte[] digest = md.digest(("OfflinePlayer:" + username).getBytes());
-            
-            digest[6] = (byte) ((digest[6] & 0x0f) | 0x30);
-            digest[8] = (byte) ((digest[8] & 0x3f) | 0x80);
-            
-            StringBuilder sb = new StringBuilder();
-            for (byte b : digest) {
-                sb.append(String.format("%02x", b));
-            }
-            String hex = sb.toString();
-            
-            return hex.substring(0, 8) + "-" + hex.substring(8, 12) + "-" +
-                   hex.substring(12, 16) + "-" + hex.substring(16, 20) + "-" +
-                   hex.substring(20, 32);
-                   
-        } catch (Exception e) {
-            return "00000000-0000-0000-0000-000000000000";
-        }
-    }
-    
+
     // ═══════════════════════════════════════════════════════════════════════════════
     // THEME & SETTINGS
     // ═══════════════════════════════════════════════════════════════════════════════
@@ -1041,8 +1345,94 @@ public class CTLauncher extends JFrame {
         }
     }
     
+    // For now the settings hold the installation check
     private void showSettings() {
-        JOptionPane.showMessageDialog(this, "Settings panel coming soon!", "Settings", JOptionPane.INFORMATION_MESSAGE);
+        JDialog dialog = new JDialog(this, "Settings", true);
+        JPanel content = new JPanel();
+        content.setLayout(new BoxLayout(content, BoxLayout.Y_AXIS));
+        content.setBackground(currentTheme.get("bg"));
+        content.setBorder(BorderFactory.createEmptyBorder(15, 15, 15, 15));
+        
+        JPanel installPanel = createSectionPanel("INSTALLATION");
+        
+        JLabel infoLabel = new JLabel("<html>Re-hashes every file of the installed versions and re-downloads the broken ones</html>");
+        infoLabel.setFont(new Font("Segoe UI", Font.PLAIN, 9));
+        infoLabel.setForeground(currentTheme.get("textDim"));
+        infoLabel.setAlignmentX(Component.LEFT_ALIGNMENT);
+        installPanel.add(infoLabel);
+        installPanel.add(Box.createVerticalStrut(8));
+        
+        JProgressBar checkBar = new JProgressBar(0, 100);
+        checkBar.setMaximumSize(new Dimension(Integer.MAX_VALUE, 16));
+        checkBar.setAlignmentX(Component.LEFT_ALIGNMENT);
+        checkBar.setVisible(false);
+        installPanel.add(checkBar);
+        installPanel.add(Box.createVerticalStrut(4));
+        
+        JLabel resultLabel = new JLabel(" ");
+        resultLabel.setFont(new Font("Segoe UI", Font.PLAIN, 9));
+        resultLabel.setForeground(currentTheme.get("text"));
+        resultLabel.setAlignmentX(Component.LEFT_ALIGNMENT);
+        installPanel.add(resultLabel);
+        installPanel.add(Box.createVerticalStrut(8));
+        
+        JPanel btnPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 5, 0));
+        btnPanel.setOpaque(false);
+        btnPanel.setAlignmentX(Component.LEFT_ALIGNMENT);
+        CTButton verifyBtn = new CTButton("Verify", false, currentTheme);
+        CTButton repairBtn = new CTButton("Verify & Repair", true, currentTheme);
+        verifyBtn.addActionListener(e -> checkInstallation(false, checkBar, resultLabel, verifyBtn, repairBtn));
+        repairBtn.addActionListener(e -> checkInstallation(true, checkBar, resultLabel, verifyBtn, repairBtn));
+        btnPanel.add(verifyBtn);
+        btnPanel.add(repairBtn);
+        installPanel.add(btnPanel);
+        
+        content.add(installPanel);
+        dialog.setContentPane(content);
+        dialog.setSize(460, 220);
+        dialog.setLocationRelativeTo(this);
+        dialog.setVisible(true);
+    }
+    
+    // Runs InstallCheck off the EDT; closing the dialog leaves a running check to finish
+    private void checkInstallation(boolean repair, JProgressBar bar, JLabel result, JButton... buttons) {
+        for (JButton b : buttons) b.setEnabled(false);
+        bar.setValue(0);
+        bar.setVisible(true);
+        result.setForeground(currentTheme.get("text"));
+        result.setText(repair ? "Verifying and repairing..." : "Verifying...");
+        
+        new SwingWorker<InstallCheck.Report, String>() {
+            @Override
+            protected InstallCheck.Report doInBackground() throws Exception {
+                return InstallCheck.run(repair, (checked, total, message) -> {
+                    setProgress(total == 0 ? 100 : 100 * checked / total);
+                    publish(message);
+                });
+            }
+            
+            @Override
+            protected void process(List<String> messages) {
+                bar.setValue(getProgress());
+                result.setText(messages.get(messages.size() - 1));
+            }
+            
+            @Override
+            protected void done() {
+                bar.setVisible(false);
+                for (JButton b : buttons) b.setEnabled(true);
+                try {
+                    InstallCheck.Report report = get();
+                    boolean clean = repair ? report.failed.isEmpty() : report.broken.isEmpty();
+                    result.setForeground(currentTheme.get(clean ? "success" : repair ? "error" : "warning"));
+                    result.setText("<html>" + report.versions.size() + " versions, " + report.summary() + "</html>");
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    result.setForeground(currentTheme.get("error"));
+                    result.setText("Error: " + e.getMessage());
+                }
+            }
+        }.execute();
     }
     
     // ═══════════════════════════════════════════════════════════════════════════════
@@ -1132,9 +1522,4468 @@ public class CTLauncher extends JFrame {
     }
     
     // ═══════════════════════════════════════════════════════════════════════════════
-    // MAIN
+    // VERSION MANIFEST CACHE
     // ═══════════════════════════════════════════════════════════════════════════════
-    public static void main(String[] args) {
+    // Last good version_manifest.json plus its ETag/Last-Modified, revalidated with a
+    // conditional GET so an unchanged manifest costs one small 304 round trip.
+    static final class ManifestCache {
+        private static final Path BODY = Paths.get(CACHE_DIR, "version_manifest.json");
+        private static final Path META = Paths.get(CACHE_DIR, "version_manifest.properties");
+        
+        static String loadCached() {
+            try {
+                return Files.exists(BODY) ? new String(Files.readAllBytes(BODY), StandardCharsets.UTF_8) : null;
+            } catch (IOException e) {
+                return null;
+            }
+        }
+        
+        // Returns the new manifest, or null when the cached copy is still current
+        static String refresh() throws IOException {
+            Properties meta = new Properties();
+            if (Files.exists(BODY) && Files.exists(META)) {
+                try (InputStream in = Files.newInputStream(META)) {
+                    meta.load(in);
+                }
+            }
+            
+            List<String> headers = new ArrayList<>();
+            if (meta.getProperty("etag") != null) {
+                headers.add("If-None-Match");
+                headers.add(meta.getProperty("etag"));
+            }
+            if (meta.getProperty("lastModified") != null) {
+                headers.add("If-Modified-Since");
+                headers.add(meta.getProperty("lastModified"));
+            }
+            
+            try (HttpTransport.Response resp = HttpTransport.send("GET", VERSION_MANIFEST_URL, headers.toArray(new String[0]))) {
+                int code = resp.status();
+                if (code == HttpURLConnection.HTTP_NOT_MODIFIED) return null;
+                if (code >= 400) throw new HttpStatusException(code, VERSION_MANIFEST_URL);
+                
+                byte[] body = resp.body().readAllBytes();
+                store(body, resp.header("ETag"), resp.header("Last-Modified"));
+                return new String(body, StandardCharsets.UTF_8);
+            }
+        }
+        
+        private static void store(byte[] body, String etag, String lastModified) {
+            try {
+                Files.createDirectories(BODY.getParent());
+                Path tmp = BODY.resolveSibling(BODY.getFileName() + ".tmp");
+                Files.write(tmp, body);
+                moveAtomically(tmp, BODY);
+                
+                Properties meta = new Properties();
+                if (etag != null) meta.setProperty("etag", etag);
+                if (lastModified != null) meta.setProperty("lastModified", lastModified);
+                try (OutputStream out = Files.newOutputStream(META)) {
+                    meta.store(out, "version_manifest.json validators");
+                }
+            } catch (IOException e) {
+                System.err.println("Failed to cache version manifest: " + e.getMessage());
+            }
+        }
+    }
+    
+    // ═══════════════════════════════════════════════════════════════════════════════
+    // LAUNCH PLAN CACHE
+    // ═══════════════════════════════════════════════════════════════════════════════
+    // The fully resolved launch command for a version, keyed by version id, version JSON hash,
+    // RAM and OS. It is valid while the install stamp and the version directory's mtime are
+    // unchanged, so a warm PLAY skips directory setup, download checks, library scans and the
+    // per-jar classpath stats. The player name and UUID stay as placeholders until spawn.
+    static final class LaunchPlan {
+        private static final int FORMAT = 4;
+        static final String USERNAME = "${auth_player_name}";
+        static final String UUID = "${auth_uuid}";
+        private static final Map<String, List<String>> memory = new ConcurrentHashMap<>();
+        
+        private static Path planPath(String version, int ram, String tuning) {
+            return Paths.get(CACHE_DIR, "plans", version + "-" + ram + "G-" + tuning + ".plan");
+        }
+        
+        private static String key(String version, int ram, String tuning) throws IOException {
+            Path json = Paths.get(VERSIONS_DIR, version, version + ".json");
+            return version + "|" + sha1Of(json) + "|" + ram + "|" + JvmTuning.planKey(tuning) + "|"
+                + System.getProperty("os.name") + "|" + System.getProperty("os.arch") + "|" + FORMAT;
+        }
+        
+        private static String validity(String version) {
+            File versionDir = new File(VERSIONS_DIR, version);
+            return InstallStamp.current() + ":" + versionDir.lastModified();
+        }
+        
+        // Returns the cached command template, or null when there is no valid plan
+        static List<String> lookup(String version, int ram, String tuning) {
+            List<String> plan = find(version, ram, tuning);
+            Metrics.count(plan != null ? "launchPlan.hits" : "launchPlan.misses", 1);
+            return plan;
+        }
+        
+        private static List<String> find(String version, int ram, String tuning) {
+            Path path = planPath(version, ram, tuning);
+            if (!Files.exists(path) || !Files.exists(Paths.get(VERSIONS_DIR, version, version + ".json"))) return null;
+            try {
+                String key = key(version, ram, tuning);
+                String validity = validity(version);
+                List<String> cached = memory.get(key + "|" + validity);
+                if (cached != null) return cached;
+                
+                try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+                    if (!key.equals(in.readUTF()) || !validity.equals(in.readUTF())) return null;
+                    int n = in.readInt();
+                    List<String> cmd = new ArrayList<>(n);
+                    for (int i = 0; i < n; i++) {
+                        // Length-prefixed UTF-8: a classpath can exceed writeUTF's 64 KB limit
+                        byte[] bytes = new byte[in.readInt()];
+                        in.readFully(bytes);
+                        cmd.add(new String(bytes, StandardCharsets.UTF_8));
+                    }
+                    cmd = Collections.unmodifiableList(cmd);
+                    memory.put(key + "|" + validity, cmd);
+                    return cmd;
+                }
+            } catch (IOException e) {
+                return null;
+            }
+        }
+        
+        static void save(String version, int ram, String tuning, List<String> cmd) {
+            try {
+                Path path = planPath(version, ram, tuning);
+                Files.createDirectories(path.getParent());
+                Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+                String key = key(version, ram, tuning);
+                String validity = validity(version);
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                    out.writeUTF(key);
+                    out.writeUTF(validity);
+                    out.writeInt(cmd.size());
+                    for (String arg : cmd) {
+                        byte[] bytes = arg.getBytes(StandardCharsets.UTF_8);
+                        out.writeInt(bytes.length);
+                        out.write(bytes);
+                    }
+                }
+                moveAtomically(tmp, path);
+                memory.put(key + "|" + validity, Collections.unmodifiableList(new ArrayList<>(cmd)));
+            } catch (IOException e) {
+                System.err.println("Failed to cache launch plan: " + e.getMessage());
+            }
+        }
+        
+        static List<String> resolve(List<String> template, String username, String uuid) {
+            List<String> cmd = new ArrayList<>(template.size());
+            for (String arg : template) {
+                cmd.add(arg.equals(USERNAME) ? username : arg.equals(UUID) ? uuid : arg);
+            }
+            return cmd;
+        }
+    }
+    
+    // One counter for the whole install: bumped (at most once per batch) whenever a download or
+    // link changes files under ~/.ctlauncher, so caches can validate with a single small read.
+    static final class InstallStamp {
+        private static final Path FILE = Paths.get(CTLAUNCHER_DIR, "install.stamp");
+        private static final AtomicBoolean dirty = new AtomicBoolean(false);
+        
+        static void markChanged() {
+            dirty.set(true);
+        }
+        
+        static void flush() {
+            if (!dirty.getAndSet(false)) return;
+            try {
+                long next = Math.max(current() + 1, System.currentTimeMillis());
+                Files.createDirectories(FILE.getParent());
+                Files.write(FILE, String.valueOf(next).getBytes());
+            } catch (IOException e) {
+                System.err.println("Failed to update install stamp: " + e.getMessage());
+            }
+        }
+        
+        static long current() {
+            try {
+                return Long.parseLong(new String(Files.readAllBytes(FILE)).trim());
+            } catch (IOException | NumberFormatException e) {
+                return 0;
+            }
+        }
+    }
+    
+    // ═══════════════════════════════════════════════════════════════════════════════
+    // METRICS
+    // ═══════════════════════════════════════════════════════════════════════════════
+    // Timing spans and counters along the launch path. Every span is also a JFR event
+    // (ctlauncher.Span; record with -XX:StartFlightRecording or `jcmd <pid> JFR.start`) and is
+    // aggregated per name into a latency histogram. The session's aggregates are written to
+    // metrics/session-<start>-<pid>.json and .prom (Prometheus text format, e.g. for the
+    // node_exporter textfile collector) when the launcher exits and after each game exits, so
+    // launch latency can be compared across machines.
+    //   metrics.enabled=true, metrics.dir=~/.ctlauncher/metrics, metrics.keep=50
+    static final class Metrics {
+        private static final boolean ENABLED = LauncherConfig.getBool("metrics.enabled", true);
+        private static final double[] BUCKETS = {0.001, 0.005, 0.01, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60};
+        private static final Map<String, Stat> spans = new ConcurrentHashMap<>();
+        private static final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+        private static final long startMillis = System.currentTimeMillis();
+        private static final String session = new java.text.SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date(startMillis))
+            + "-" + ProcessHandle.current().pid();
+        private static volatile boolean jfr = true;
+        
+        static {
+            if (ENABLED) Runtime.getRuntime().addShutdownHook(new Thread(Metrics::export, "ctl-metrics"));
+        }
+        
+        private Metrics() {}
+        
+        @jdk.jfr.Name("ctlauncher.Span")
+        @jdk.jfr.Label("Launcher Span")
+        @jdk.jfr.Category("CTLauncher")
+        @jdk.jfr.StackTrace(false)
+        static final class SpanEvent extends jdk.jfr.Event {
+            @jdk.jfr.Label("Span")
+            String span;
+            @jdk.jfr.Label("Detail")
+            String detail;
+        }
+        
+        private static final class Stat {
+            final LongAdder count = new LongAdder();
+            final LongAdder totalNanos = new LongAdder();
+            final AtomicLong maxNanos = new AtomicLong();
+            final AtomicLongArray buckets = new AtomicLongArray(BUCKETS.length);
+            
+            void add(long nanos) {
+                count.increment();
+                totalNanos.add(nanos);
+                maxNanos.accumulateAndGet(nanos, Math::max);
+                double seconds = nanos / 1e9;
+                for (int i = 0; i < BUCKETS.length; i++) {
+                    if (seconds <= BUCKETS[i]) {
+                        buckets.incrementAndGet(i);
+                        break;
+                    }
+                }
+            }
+        }
+        
+        // Metrics.Span span = Metrics.span("downloadLibraries", version);
+        // try { ... } finally { span.close(); }
+        // Deliberately not AutoCloseable: an unreferenced try-with-resources span trips -Xlint:try
+        static final class Span {
+            private final String name;
+            private final long start = System.nanoTime();
+            private final SpanEvent event;
+            
+            private Span(String name, String detail) {
+                this.name = name;
+                SpanEvent e = null;
+                if (jfr) {
+                    try {
+                        e = new SpanEvent();
+                        e.span = name;
+                        e.detail = detail;
+                        e.begin();
+                    } catch (LinkageError noJfr) {
+                        // Runtime without the jdk.jfr module; keep the aggregates only
+                        jfr = false;
+                        e = null;
+                    }
+                }
+                this.event = e;
+            }
+            
+            void close() {
+                record(name, System.nanoTime() - start);
+                if (event != null) event.commit();
+            }
+        }
+        
+        static Span span(String name) {
+            return span(name, null);
+        }
+        
+        static Span span(String name, String detail) {
+            return new Span(name, ENABLED ? detail : null);
+        }
+        
+        // For durations measured elsewhere (e.g. game startup milestones)
+        static void record(String name, long nanos) {
+            if (ENABLED) spans.computeIfAbsent(name, k -> new Stat()).add(nanos);
+        }
+        
+        static void count(String name, long delta) {
+            if (ENABLED) counters.computeIfAbsent(name, k -> new LongAdder()).add(delta);
+        }
+        
+        // ── Export ──
+        
+        static synchronized void export() {
+            if (!ENABLED) return;
+            try {
+                Path dir = Paths.get(LauncherConfig.get("metrics.dir", CTLAUNCHER_DIR + "/metrics"));
+                Files.createDirectories(dir);
+                writeAtomically(dir.resolve("session-" + session + ".json"), toJson());
+                writeAtomically(dir.resolve("session-" + session + ".prom"), toPrometheus());
+                prune(dir, LauncherConfig.getInt("metrics.keep", 50));
+            } catch (IOException e) {
+                System.err.println("Failed to write metrics: " + e.getMessage());
+            }
+        }
+        
+        private static void writeAtomically(Path file, String content) throws IOException {
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            Files.write(tmp, content.getBytes(StandardCharsets.UTF_8));
+            moveAtomically(tmp, file);
+        }
+        
+        private static void prune(Path dir, int keep) throws IOException {
+            for (String ext : new String[]{"json", "prom"}) {
+                List<Path> files = new ArrayList<>();
+                try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "session-*." + ext)) {
+                    for (Path p : stream) files.add(p);
+                }
+                Collections.sort(files);
+                for (int i = 0; i < files.size() - Math.max(1, keep); i++) Files.deleteIfExists(files.get(i));
+            }
+        }
+        
+        private static Map<String, String> sessionInfo() {
+            Map<String, String> info = new LinkedHashMap<>();
+            info.put("session", session);
+            String host = System.getenv("HOSTNAME") != null ? System.getenv("HOSTNAME") : System.getenv("COMPUTERNAME");
+            info.put("host", host != null ? host : "unknown");
+            info.put("os", Rules.CURRENT.osName);
+            info.put("arch", Rules.CURRENT.osArch);
+            info.put("java", System.getProperty("java.version"));
+            info.put("cpus", String.valueOf(Runtime.getRuntime().availableProcessors()));
+            info.put("memoryMb", String.valueOf(JvmTuning.physicalMb()));
+            return info;
+        }
+        
+        static String toJson() {
+            StringBuilder sb = new StringBuilder("{");
+            for (Map.Entry<String, String> e : sessionInfo().entrySet()) {
+                sb.append(Json.quote(e.getKey())).append(':').append(Json.quote(e.getValue())).append(',');
+            }
+            sb.append("\"startedAt\":").append(Json.quote(new Date(startMillis).toInstant().toString()));
+            sb.append(",\"uptimeMs\":").append(System.currentTimeMillis() - startMillis);
+            sb.append(",\"spans\":{");
+            String sep = "";
+            for (Map.Entry<String, Stat> e : new TreeMap<>(spans).entrySet()) {
+                Stat s = e.getValue();
+                long count = s.count.sum();
+                double totalMs = s.totalNanos.sum() / 1e6;
+                sb.append(sep).append(Json.quote(e.getKey())).append(":{\"count\":").append(count)
+                  .append(",\"totalMs\":").append(String.format(Locale.ROOT, "%.3f", totalMs))
+                  .append(",\"meanMs\":").append(String.format(Locale.ROOT, "%.3f", count > 0 ? totalMs / count : 0))
+                  .append(",\"maxMs\":").append(String.format(Locale.ROOT, "%.3f", s.maxNanos.get() / 1e6)).append('}');
+                sep = ",";
+            }
+            sb.append("},\"counters\":{");
+            sep = "";
+            for (Map.Entry<String, LongAdder> e : new TreeMap<>(counters).entrySet()) {
+                sb.append(sep).append(Json.quote(e.getKey())).append(':').append(e.getValue().sum());
+                sep = ",";
+            }
+            return sb.append("}}\n").toString();
+        }
+        
+        static String toPrometheus() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("# HELP ctlauncher_session_info Launcher session and machine\n");
+            sb.append("# TYPE ctlauncher_session_info gauge\nctlauncher_session_info{");
+            String sep = "";
+            for (Map.Entry<String, String> e : sessionInfo().entrySet()) {
+                sb.append(sep).append(e.getKey()).append("=\"").append(escapeLabel(e.getValue())).append('"');
+                sep = ",";
+            }
+            sb.append("} 1\n");
+            
+            sb.append("# HELP ctlauncher_span_seconds Time spent in launcher phases\n");
+            sb.append("# TYPE ctlauncher_span_seconds histogram\n");
+            for (Map.Entry<String, Stat> e : new TreeMap<>(spans).entrySet()) {
+                String label = "span=\"" + escapeLabel(e.getKey()) + "\"";
+                Stat s = e.getValue();
+                long cumulative = 0;
+                for (int i = 0; i < BUCKETS.length; i++) {
+                    cumulative += s.buckets.get(i);
+                    sb.append("ctlauncher_span_seconds_bucket{").append(label).append(",le=\"").append(BUCKETS[i]).append("\"} ")
+                      .append(cumulative).append('\n');
+                }
+                long count = s.count.sum();
+                sb.append("ctlauncher_span_seconds_bucket{").append(label).append(",le=\"+Inf\"} ").append(count).append('\n');
+                sb.append("ctlauncher_span_seconds_sum{").append(label).append("} ").append(s.totalNanos.sum() / 1e9).append('\n');
+                sb.append("ctlauncher_span_seconds_count{").append(label).append("} ").append(count).append('\n');
+            }
+            
+            for (Map.Entry<String, LongAdder> e : new TreeMap<>(counters).entrySet()) {
+                String metric = "ctlauncher_" + e.getKey().replaceAll("[^a-zA-Z0-9_]", "_") + "_total";
+                sb.append("# TYPE ").append(metric).append(" counter\n");
+                sb.append(metric).append(' ').append(e.getValue().sum()).append('\n');
+            }
+            return sb.toString();
+        }
+        
+        private static String escapeLabel(String value) {
+            return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+        }
+    }
+
+    // ═══════════════════════════════════════════════════════════════════════════════
+    // GAME SUPERVISOR
+    // ═══════════════════════════════════════════════════════════════════════════════
+    // Tracks every game the window launches. One daemon thread per game drains its merged
+    // stdout/stderr into a bounded ring of recent lines and a gzip log under logs/<version>/
+    // (a new file per launch and every supervisor.maxLogMb, newest supervisor.keepLogs kept),
+    // so game output no longer mixes with the launcher's (supervisor.echo=true restores that).
+    // Key lines mark startup milestones (user set, window created via LWJGL, main menu), and
+    // when the game exits the session is appended to logs/sessions.log. Listeners hear about
+    // milestones and exits on the drain/exit threads and hand off to the EDT themselves.
+    static final class GameSupervisor {
+        static final String USER = "user";
+        static final String WINDOW = "window";
+        static final String MENU = "menu";
+        private static final Pattern WINDOW_LINE = Pattern.compile("(?i)LWJGL Version");
+        private static final Pattern CRASH_REPORT = Pattern.compile("Crash report saved to:\\s*(?:#@.@#\\s*)?(.+)");
+        private static final Path SESSIONS = Paths.get(CTLAUNCHER_DIR, "logs", "sessions.log");
+        
+        interface Listener {
+            void milestone(Session session, String name, long millis);
+            void exited(Session session);
+        }
+        
+        private final List<Session> sessions = new CopyOnWriteArrayList<>();
+        private volatile Listener listener;
+        
+        void setListener(Listener listener) {
+            this.listener = listener;
+        }
+        
+        List<Session> sessions() {
+            return Collections.unmodifiableList(sessions);
+        }
+        
+        static final class Session {
+            final String version;
+            final Process process;
+            final long startNanos;
+            final ClassDataSharing.Mode cdsMode;
+            final Map<String, Long> milestones = new ConcurrentHashMap<>();
+            volatile String crashReport;
+            volatile int exitCode = Integer.MIN_VALUE;
+            volatile long runMillis;
+            private final String[] ring;
+            private int next;
+            private long lineCount;
+            
+            Session(String version, Process process, long startNanos, ClassDataSharing.Mode cdsMode, int capacity) {
+                this.version = version;
+                this.process = process;
+                this.startNanos = startNanos;
+                this.cdsMode = cdsMode;
+                this.ring = new String[Math.max(16, capacity)];
+            }
+            
+            synchronized void append(String line) {
+                ring[next] = line;
+                next = (next + 1) % ring.length;
+                lineCount++;
+            }
+            
+            // Last n lines, oldest first
+            synchronized List<String> tail(int n) {
+                int count = (int) Math.min(Math.min(n, ring.length), lineCount);
+                List<String> lines = new ArrayList<>(count);
+                for (int i = count; i > 0; i--) {
+                    lines.add(ring[(next - i + ring.length) % ring.length]);
+                }
+                return lines;
+            }
+            
+            boolean exited() {
+                return exitCode != Integer.MIN_VALUE;
+            }
+            
+            boolean crashed() {
+                return exited() && (exitCode != 0 || crashReport != null);
+            }
+            
+            // Exit code, report location, the first exception and the last lines of output
+            String crashSummary() {
+                StringBuilder sb = new StringBuilder("Minecraft ").append(version).append(" exited with code ")
+                    .append(exitCode).append(" after ").append(runMillis / 1000).append(" s\n");
+                if (crashReport != null) sb.append("Crash report: ").append(crashReport).append('\n');
+                List<String> lines = tail(ring.length);
+                for (String line : lines) {
+                    if (line.contains("Description:") || line.matches(".*\\b[\\w.$]+(Exception|Error)\\b.*")) {
+                        sb.append(line.trim()).append('\n');
+                        break;
+                    }
+                }
+                sb.append("\nLast output:\n");
+                for (String line : tail(LauncherConfig.getInt("supervisor.summaryLines", 20))) {
+                    sb.append(line).append('\n');
+                }
+                return sb.toString();
+            }
+        }
+        
+        Session attach(String version, Process game, long startNanos, ClassDataSharing.Mode cdsMode) {
+            Session session = new Session(version, game, startNanos, cdsMode,
+                LauncherConfig.getInt("supervisor.bufferLines", 2000));
+            sessions.add(session);
+            Thread drain = new Thread(() -> drain(session), "ctl-game-" + game.pid());
+            drain.setDaemon(true);
+            drain.start();
+            game.onExit().thenAccept(p -> {
+                // Let the drain read what the game printed last before summarising
+                try {
+                    drain.join(2000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                session.runMillis = (System.nanoTime() - startNanos) / 1_000_000;
+                session.exitCode = p.exitValue();
+                sessions.remove(session);
+                appendSessionLog(session);
+                Metrics.count(session.crashed() ? "games.crashed" : "games.exited", 1);
+                Metrics.export();
+                Listener l = listener;
+                if (l != null) l.exited(session);
+            });
+            return session;
+        }
+        
+        private void drain(Session session) {
+            String menuMarker = LauncherConfig.get("cds.menuMarker", "Sound engine started");
+            boolean echo = LauncherConfig.getBool("supervisor.echo", false);
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(session.process.getInputStream()));
+                 RotatingLog log = new RotatingLog(session)) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    session.append(line);
+                    log.write(line);
+                    if (echo) System.out.println(line);
+                    
+                    if (!session.milestones.containsKey(USER) && line.contains("Setting user:")) {
+                        reached(session, USER);
+                    } else if (!session.milestones.containsKey(WINDOW) && WINDOW_LINE.matcher(line).find()) {
+                        reached(session, WINDOW);
+                    } else if (!session.milestones.containsKey(MENU) && line.contains(menuMarker)) {
+                        reached(session, MENU);
+                    }
+                    Matcher crash = CRASH_REPORT.matcher(line);
+                    if (crash.find()) session.crashReport = crash.group(1).trim();
+                    
+                    // Flush whenever the game pauses so the log is current if we die first
+                    if (!in.ready()) log.flush();
+                }
+            } catch (IOException e) {
+                System.err.println("Game output for " + session.version + " lost: " + e.getMessage());
+            }
+        }
+        
+        private void reached(Session session, String name) {
+            long millis = (System.nanoTime() - session.startNanos) / 1_000_000;
+            session.milestones.put(name, millis);
+            Metrics.record("game." + name, millis * 1_000_000);
+            if (name.equals(MENU) && ClassDataSharing.measuring()) ClassDataSharing.record(session.version, session.cdsMode, millis);
+            Listener l = listener;
+            if (l != null) l.milestone(session, name, millis);
+        }
+        
+        private static synchronized void appendSessionLog(Session session) {
+            String line = String.join("\t", java.time.Instant.now().toString(), session.version,
+                String.valueOf(session.process.pid()), "exit=" + session.exitCode,
+                "user=" + session.milestones.getOrDefault(USER, -1L),
+                "window=" + session.milestones.getOrDefault(WINDOW, -1L),
+                "menu=" + session.milestones.getOrDefault(MENU, -1L),
+                "runMs=" + session.runMillis, "cds=" + session.cdsMode.name().toLowerCase(),
+                session.crashReport != null ? "report=" + session.crashReport : "") + "\n";
+            try {
+                Files.createDirectories(SESSIONS.getParent());
+                Files.write(SESSIONS, line.getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            } catch (IOException e) {
+                System.err.println("Failed to record session: " + e.getMessage());
+            }
+        }
+        
+        // logs/<version>/<start>-<pid>[-part].log.gz; a part is closed once it reaches maxLogMb
+        private static final class RotatingLog implements Closeable {
+            private final Path dir;
+            private final String base;
+            private final long maxBytes = Math.max(1, LauncherConfig.getInt("supervisor.maxLogMb", 32)) * 1024L * 1024L;
+            private Writer out;
+            private long written;
+            private int part;
+            
+            RotatingLog(Session session) throws IOException {
+                dir = Paths.get(CTLAUNCHER_DIR, "logs", session.version);
+                base = new java.text.SimpleDateFormat("yyyyMMdd-HHmmss").format(new java.util.Date())
+                    + "-" + session.process.pid();
+                Files.createDirectories(dir);
+                prune(LauncherConfig.getInt("supervisor.keepLogs", 5) - 1);
+                open();
+            }
+            
+            private void open() throws IOException {
+                part++;
+                Path file = dir.resolve(base + (part > 1 ? "-" + part : "") + ".log.gz");
+                out = new BufferedWriter(new OutputStreamWriter(
+                    new GZIPOutputStream(Files.newOutputStream(file), 8192, true), StandardCharsets.UTF_8));
+                written = 0;
+            }
+            
+            void write(String line) throws IOException {
+                if (written >= maxBytes) {
+                    out.close();
+                    open();
+                }
+                out.write(line);
+                out.write('\n');
+                written += line.length() + 1;
+            }
+            
+            void flush() throws IOException {
+                out.flush();
+            }
+            
+            // Keeps the newest `keep` logs of this version (names sort by start time)
+            private void prune(int keep) throws IOException {
+                List<Path> logs = new ArrayList<>();
+                try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*.log.gz")) {
+                    for (Path p : stream) logs.add(p);
+                }
+                Collections.sort(logs);
+                for (int i = 0; i < logs.size() - Math.max(0, keep); i++) {
+                    Files.deleteIfExists(logs.get(i));
+                }
+            }
+            
+            @Override
+            public void close() throws IOException {
+                out.close();
+            }
+        }
+    }
+
+    // ═══════════════════════════════════════════════════════════════════════════════
+    // CLASS DATA SHARING
+    // ═══════════════════════════════════════════════════════════════════════════════
+    // Opt-in (cds.enabled=true) dynamic AppCDS for the game JVM. The first launch of a version
+    // records the classes it loaded into an archive when the game exits (-XX:ArchiveClassesAtExit);
+    // later launches map that archive (-XX:SharedArchiveFile) instead of parsing and verifying
+    // those classes again. Archives live in cache/cds, named by version plus a hash of the
+    // classpath and the runtime, so a library update or a different JVM records a fresh one.
+    // Needs a Java 13+ runtime; older runtimes launch unchanged.
+    //
+    // When measuring (cds.measure, on with cds.enabled) the GameSupervisor's time to the main
+    // menu (first cds.menuMarker line) is kept per version and mode in cache/cds/startup.properties.
+    // Measure once with CDS off to get the baseline the shared runs are compared against.
+    static final class ClassDataSharing {
+        enum Mode { OFF, RECORD, SHARED }
+        
+        private static final Path DIR = Paths.get(CACHE_DIR, "cds");
+        private static final Path TIMINGS = DIR.resolve("startup.properties");
+        
+        private ClassDataSharing() {}
+        
+        static boolean enabled() {
+            return LauncherConfig.getBool("cds.enabled", false);
+        }
+        
+        static boolean measuring() {
+            return LauncherConfig.getBool("cds.measure", enabled());
+        }
+        
+        // Archive for this command, or null when CDS is off or its runtime cannot use one
+        static Path archiveFor(String version, List<String> cmd) {
+            if (!enabled() || cmd.isEmpty()) return null;
+            try {
+                Path java = JavaRuntimes.locate(cmd.get(0));
+                if (java == null || JavaRuntimes.majorOf(java) < 13) return null;
+                Path home = java.getParent().getParent();
+                
+                int cp = cmd.indexOf("-cp");
+                String classpath = cp >= 0 && cp + 1 < cmd.size() ? cmd.get(cp + 1) : "";
+                StringBuilder key = new StringBuilder(classpath).append('|').append(java);
+                // A jar replaced at the same path still changes the key; CDS refuses directories
+                for (String entry : classpath.split(File.pathSeparator)) {
+                    File file = new File(entry);
+                    if (file.isDirectory()) return null;
+                    key.append('|').append(file.lastModified());
+                }
+                Path release = home.resolve("release");
+                Path modules = home.resolve("lib").resolve("modules");
+                key.append('|').append(Files.exists(release) ? sha1Of(release) : "")
+                   .append('|').append(modules.toFile().lastModified());
+                
+                MessageDigest md = MessageDigest.getInstance("SHA-1");
+                String hash = toHex(md.digest(key.toString().getBytes(StandardCharsets.UTF_8))).substring(0, 16);
+                return DIR.resolve(version + "-" + hash + ".jsa");
+            } catch (IOException | NoSuchAlgorithmException e) {
+                System.err.println("CDS disabled for " + version + ": " + e.getMessage());
+                return null;
+            }
+        }
+        
+        static Mode modeFor(Path archive) {
+            if (archive == null) return Mode.OFF;
+            return Files.isRegularFile(archive) ? Mode.SHARED : Mode.RECORD;
+        }
+        
+        // The command with the archive flag right after the java executable
+        static List<String> withArchive(String version, List<String> cmd, Path archive) {
+            Mode mode = modeFor(archive);
+            if (mode == Mode.OFF) return cmd;
+            List<String> result = new ArrayList<>(cmd.size() + 1);
+            result.add(cmd.get(0));
+            if (mode == Mode.SHARED) {
+                result.add("-XX:SharedArchiveFile=" + archive);
+            } else {
+                try {
+                    Files.createDirectories(DIR);
+                    discardStale(version, archive);
+                } catch (IOException e) {
+                    System.err.println("Cannot prepare " + DIR + ": " + e.getMessage());
+                    return cmd;
+                }
+                result.add("-XX:ArchiveClassesAtExit=" + archive);
+            }
+            result.addAll(cmd.subList(1, cmd.size()));
+            return result;
+        }
+        
+        // Archives of this version recorded for an older classpath or runtime
+        private static void discardStale(String version, Path keep) throws IOException {
+            try (DirectoryStream<Path> archives = Files.newDirectoryStream(DIR, version + "-*.jsa")) {
+                for (Path old : archives) {
+                    if (!old.equals(keep)) Files.deleteIfExists(old);
+                }
+            }
+        }
+        
+        // ── Startup timing ──
+        
+        static synchronized void record(String version, Mode mode, long millis) {
+            Properties timings = new Properties();
+            try {
+                if (Files.exists(TIMINGS)) {
+                    try (InputStream in = Files.newInputStream(TIMINGS)) {
+                        timings.load(in);
+                    }
+                }
+                String prefix = version + "." + mode.name().toLowerCase() + ".";
+                long runs = Long.parseLong(timings.getProperty(prefix + "runs", "0")) + 1;
+                long total = Long.parseLong(timings.getProperty(prefix + "totalMs", "0")) + millis;
+                timings.setProperty(prefix + "runs", String.valueOf(runs));
+                timings.setProperty(prefix + "totalMs", String.valueOf(total));
+                timings.setProperty(prefix + "lastMs", String.valueOf(millis));
+                Files.createDirectories(DIR);
+                try (OutputStream out = Files.newOutputStream(TIMINGS)) {
+                    timings.store(out, "Time from spawn to main menu, per version and CDS mode");
+                }
+                
+                String summary = "⏱ " + version + " reached the menu in " + millis + " ms (CDS " + mode.name().toLowerCase() + ")";
+                long baseRuns = Long.parseLong(timings.getProperty(version + ".off.runs", "0"));
+                if (mode == Mode.SHARED && baseRuns > 0) {
+                    long baseline = Long.parseLong(timings.getProperty(version + ".off.totalMs")) / baseRuns;
+                    summary += ", " + (baseline - millis) * 100 / Math.max(1, baseline) + "% faster than the " + baseline + " ms average without CDS";
+                }
+                System.err.println(summary);
+            } catch (IOException | NumberFormatException e) {
+                System.err.println("Failed to record startup time: " + e.getMessage());
+            }
+        }
+    }
+
+    // ═══════════════════════════════════════════════════════════════════════════════
+    // PROGRESS COALESCING
+    // ═══════════════════════════════════════════════════════════════════════════════
+    // Workers post the latest progress here; a Swing timer applies it at most once per frame.
+    class ProgressCoalescer {
+        private volatile int value = -1;
+        private volatile String text = null;
+        private final AtomicBoolean dirty = new AtomicBoolean(false);
+        private final javax.swing.Timer timer = new javax.swing.Timer(PROGRESS_FRAME_MS, e -> flush());
+        
+        void post(int value, String text) {
+            this.value = value;
+            this.text = text;
+            dirty.set(true);
+        }
+        
+        void start() {
+            SwingUtilities.invokeLater(timer::start);
+        }
+        
+        void stop() {
+            SwingUtilities.invokeLater(() -> {
+                timer.stop();
+                flush();
+            });
+        }
+        
+        private void flush() {
+            if (!dirty.getAndSet(false)) return;
+            if (value >= 0) progressBar.setValue(value);
+            if (text != null) progressLabel.setText(text);
+        }
+    }
+    
+    // ═══════════════════════════════════════════════════════════════════════════════
+    // PREFETCH
+    // ═══════════════════════════════════════════════════════════════════════════════
+    // Fetches the selected version's JSON, client jar and libraries in the background, one file
+    // at a time under a bandwidth cap, so PLAY usually finds them installed. Selecting another
+    // version cancels it (partial files resume later); PLAY promotes it: the transfer in flight
+    // runs uncapped and the regular install picks up the rest at full width.
+    //   prefetch.enabled=true, prefetch.maxKbPerSec=2048 (0 = uncapped), prefetch.delayMs=750
+    static final class Prefetcher {
+        private final LauncherCore.ProgressListener listener;
+        private final ScheduledExecutorService worker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "ctl-prefetch");
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        });
+        private Task current;
+        
+        private static final class Task {
+            final String version;
+            final String url;
+            final Throttle throttle = new Throttle(LauncherConfig.getInt("prefetch.maxKbPerSec", 2048) * 1024L);
+            volatile boolean promoted;
+            Future<?> future;
+            
+            Task(String version, String url) {
+                this.version = version;
+                this.url = url;
+            }
+            
+            boolean stopped() {
+                return promoted || throttle.isCancelled();
+            }
+        }
+        
+        // The listener hears about a version once it has been fetched completely
+        Prefetcher(LauncherCore.ProgressListener listener) {
+            this.listener = listener;
+        }
+        
+        // Called on every selection change; bursts (scrolling the list, a manifest refresh)
+        // settle for prefetch.delayMs before anything is fetched
+        synchronized void select(String version, String url) {
+            if (current != null && current.version.equals(version)) return;
+            cancel();
+            if (version == null || !LauncherConfig.getBool("prefetch.enabled", true)) return;
+            Task task = new Task(version, url);
+            task.future = worker.schedule(() -> run(task),
+                Math.max(0, LauncherConfig.getInt("prefetch.delayMs", 750)), TimeUnit.MILLISECONDS);
+            current = task;
+        }
+        
+        // PLAY: whatever is in flight finishes uncapped and nothing new is started
+        synchronized void promote(String version) {
+            if (current == null) return;
+            if (!current.version.equals(version)) {
+                cancel();
+                return;
+            }
+            if (current.promoted) return;
+            current.future.cancel(false);
+            current.promoted = true;
+            current.throttle.unlimit();
+            Metrics.count("prefetch.promoted", 1);
+        }
+        
+        synchronized void cancel() {
+            if (current == null) return;
+            current.future.cancel(false);
+            // A promoted transfer may be one the install is waiting on; let it finish
+            if (!current.promoted) {
+                current.throttle.cancel();
+                Metrics.count("prefetch.cancelled", 1);
+            }
+            current = null;
+        }
+        
+        private void run(Task task) {
+            HttpDownloader.THROTTLE.set(task.throttle);
+            Metrics.Span span = Metrics.span("prefetch", task.version);
+            try {
+                String versionDir = VERSIONS_DIR + "/" + task.version;
+                Path jsonPath = Paths.get(versionDir, task.version + ".json");
+                if (!Files.exists(jsonPath)) {
+                    if (task.url == null) return;
+                    downloadFile(task.url, jsonPath.toString());
+                }
+                VersionProfile profile = VersionProfile.load(jsonPath);
+                
+                // Jobs double as (artifact, path) pairs here; the client jar goes first
+                List<DownloadScheduler.Job> files = new ArrayList<>();
+                if (profile.client != null) {
+                    files.add(new DownloadScheduler.Job(profile.client, versionDir + "/" + task.version + ".jar"));
+                }
+                for (Artifact lib : LauncherCore.librariesToDownload(profile)) {
+                    files.add(new DownloadScheduler.Job(lib, LIBRARIES_DIR + "/" + lib.path));
+                }
+                
+                int fetched = 0;
+                for (DownloadScheduler.Job file : files) {
+                    if (task.stopped()) return;
+                    Path target = Paths.get(file.destPath);
+                    if (artifactStore.isInstalled(file.artifact, target)) continue;
+                    artifactStore.install(file.artifact, target);
+                    Metrics.count("prefetch.files", 1);
+                    fetched++;
+                }
+                if (fetched > 0) listener.progress(task.version, 100, task.version + " downloaded in the background");
+            } catch (CancellationException e) {
+                // Another version was selected
+            } catch (Exception e) {
+                if (!task.stopped()) System.err.println("Prefetch of " + task.version + " stopped - " + e.getMessage());
+            } finally {
+                span.close();
+                HttpDownloader.THROTTLE.remove();
+                InstallStamp.flush();
+                InstalledIndex.save();
+            }
+        }
+    }
+
+    // ═══════════════════════════════════════════════════════════════════════════════
+    // DOWNLOAD SCHEDULER
+    // ═══════════════════════════════════════════════════════════════════════════════
+    static class DownloadScheduler {
+        interface Transfer {
+            void download(Job job) throws Exception;
+        }
+        
+        static class Job {
+            final Artifact artifact;
+            final String destPath;
+            volatile Exception error;
+            
+            Job(Artifact artifact, String destPath) {
+                this.artifact = artifact;
+                this.destPath = destPath;
+            }
+        }
+        
+        private final ExecutorService pool;
+        private final int perHostLimit;
+        private final Map<String, HostGate> hosts = new ConcurrentHashMap<>();
+        
+        DownloadScheduler(int workers, int perHostLimit) {
+            this.perHostLimit = Math.max(1, perHostLimit);
+            this.pool = Executors.newFixedThreadPool(Math.max(1, workers), r -> {
+                Thread t = new Thread(r, "ctl-download");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        
+        // Runs every job and blocks until all have finished; returns the ones that failed
+        List<Job> runAll(List<Job> jobs, Transfer transfer, IntConsumer onProgress) throws InterruptedException {
+            AtomicInteger completed = new AtomicInteger();
+            List<Future<?>> futures = new ArrayList<>();
+            for (Job job : jobs) {
+                futures.add(submit(job, transfer, () -> onProgress.accept(completed.incrementAndGet())));
+            }
+            
+            try {
+                for (Future<?> f : futures) {
+                    f.get();
+                }
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            } catch (InterruptedException e) {
+                for (Future<?> f : futures) f.cancel(true);
+                throw e;
+            }
+            
+            List<Job> failed = new ArrayList<>();
+            for (Job job : jobs) {
+                if (job.error != null) failed.add(job);
+            }
+            return failed;
+        }
+        
+        // Queues one job; failures are recorded on job.error rather than thrown from the future
+        Future<?> submit(Job job, Transfer transfer, Runnable onDone) {
+            return pool.submit(() -> {
+                try {
+                    run(job, transfer);
+                } catch (Exception e) {
+                    job.error = e;
+                }
+                onDone.run();
+            });
+        }
+        
+        private void run(Job job, Transfer transfer) throws Exception {
+            HostGate gate = hosts.computeIfAbsent(hostOf(job.artifact.url), h -> new HostGate(perHostLimit));
+            gate.acquire();
+            try {
+                transfer.download(job);
+                gate.onSuccess();
+            } catch (Exception e) {
+                gate.onFailure(e);
+                throw e;
+            } finally {
+                gate.release();
+            }
+        }
+        
+        private static String hostOf(String url) {
+            try {
+                String host = URI.create(url).getHost();
+                return host != null ? host : "";
+            } catch (IllegalArgumentException e) {
+                return "";
+            }
+        }
+    }
+    
+    // Per-host connection limit plus backoff that grows on throttling/network errors and decays on success
+    static class HostGate {
+        private final Semaphore permits;
+        private volatile long backoffMillis = 0;
+        private volatile long resumeAt = 0;
+        
+        HostGate(int limit) {
+            this.permits = new Semaphore(limit);
+        }
+        
+        void acquire() throws InterruptedException {
+            permits.acquire();
+            long wait = resumeAt - System.currentTimeMillis();
+            if (wait > 0) {
+                try {
+                    Thread.sleep(wait);
+                } catch (InterruptedException e) {
+                    permits.release();
+                    throw e;
+                }
+            }
+        }
+        
+        void release() {
+            permits.release();
+        }
+        
+        synchronized void onSuccess() {
+            backoffMillis = backoffMillis / 2 < RATE_LIMIT_DELAY ? 0 : backoffMillis / 2;
+        }
+        
+        synchronized void onFailure(Exception e) {
+            if (e instanceof HttpStatusException && !((HttpStatusException) e).isThrottling()) return;
+            backoffMillis = Math.min(MAX_BACKOFF_DELAY, Math.max(RATE_LIMIT_DELAY, backoffMillis * 2));
+            resumeAt = System.currentTimeMillis() + backoffMillis;
+        }
+    }
+    
+    // Byte-rate cap shared by every stream of one background job. unlimit() lets transfers
+    // already in flight continue at full speed; cancel() makes their next read throw.
+    static class Throttle {
+        private volatile long bytesPerSecond;
+        private volatile boolean cancelled;
+        private long nextSlot = System.nanoTime();
+        
+        Throttle(long bytesPerSecond) {
+            this.bytesPerSecond = Math.max(0, bytesPerSecond);
+        }
+        
+        void unlimit() {
+            bytesPerSecond = 0;
+        }
+        
+        void cancel() {
+            cancelled = true;
+        }
+        
+        boolean isCancelled() {
+            return cancelled;
+        }
+        
+        InputStream wrap(InputStream in) {
+            return new FilterInputStream(in) {
+                @Override
+                public int read() throws IOException {
+                    checkCancelled();
+                    int b = super.read();
+                    if (b != -1) pace(1);
+                    return b;
+                }
+                
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    checkCancelled();
+                    // Small reads while capped keep the rate smooth instead of bursty
+                    long rate = bytesPerSecond;
+                    int n = super.read(b, off, rate > 0 ? (int) Math.min(len, Math.max(8192, rate / 8)) : len);
+                    if (n > 0) pace(n);
+                    return n;
+                }
+            };
+        }
+        
+        private void checkCancelled() {
+            if (cancelled) throw new CancellationException("Transfer cancelled");
+        }
+        
+        // Waits until n more bytes fit under the cap; sleeps in slices so unlimit() and cancel() apply mid-wait
+        private void pace(long n) throws InterruptedIOException {
+            long rate = bytesPerSecond;
+            if (rate <= 0) return;
+            long due;
+            synchronized (this) {
+                // Up to 100 ms of unused time carries over, so oversleeping is made up rather than lost
+                nextSlot = Math.max(nextSlot, System.nanoTime() - 100_000_000L) + n * 1_000_000_000L / rate;
+                due = nextSlot;
+            }
+            long left;
+            while (bytesPerSecond > 0 && (left = due - System.nanoTime()) > 0) {
+                checkCancelled();
+                try {
+                    Thread.sleep(Math.min(50, left / 1_000_000 + 1));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while throttled");
+                }
+            }
+        }
+    }
+
+    // One run of a task per key at a time: the first caller runs it and callers that arrive while
+    // it is running wait for it and share its outcome instead of repeating the work
+    static final class SingleFlight<K> {
+        interface Work {
+            void run() throws Exception;
+        }
+        
+        private final Map<K, CompletableFuture<Void>> flights = new ConcurrentHashMap<>();
+        
+        // Returns true if this caller ran the work, false if it shared another caller's run
+        boolean run(K key, Work work) throws Exception {
+            while (true) {
+                CompletableFuture<Void> mine = new CompletableFuture<>();
+                CompletableFuture<Void> running = flights.putIfAbsent(key, mine);
+                if (running == null) {
+                    try {
+                        work.run();
+                        mine.complete(null);
+                        return true;
+                    } catch (Exception | Error e) {
+                        mine.completeExceptionally(e);
+                        throw e;
+                    } finally {
+                        flights.remove(key, mine);
+                    }
+                }
+                try {
+                    running.get();
+                    return false;
+                } catch (CancellationException e) {
+                    // A cancelled run (a dropped prefetch) says nothing about the work itself; do it here
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Error) throw (Error) e.getCause();
+                    throw (Exception) e.getCause();
+                }
+            }
+        }
+    }
+
+    static class HttpStatusException extends IOException {
+        private static final long serialVersionUID = 1L;
+        final int status;
+        
+        HttpStatusException(int status, String url) {
+            super("HTTP " + status + " for " + url);
+            this.status = status;
+        }
+        
+        boolean isThrottling() {
+            return status == 429 || status >= 500;
+        }
+        
+        boolean isRetryable() {
+            return isThrottling() || status == 408;
+        }
+    }
+    
+    static class ChecksumException extends IOException {
+        private static final long serialVersionUID = 1L;
+        
+        ChecksumException(String message) {
+            super(message);
+        }
+    }
+    
+    // ═══════════════════════════════════════════════════════════════════════════════
+    // HTTP TRANSPORT
+    // ═══════════════════════════════════════════════════════════════════════════════
+    // One java.net.http.HttpClient shared by every request: connections are pooled (HTTP/2
+    // streams are multiplexed over one connection per host, HTTP/1.1 falls back to keep-alive)
+    // and the SSLContext is initialized once, so a large install pays one handshake per host.
+    // launcher.properties settings:
+    //   http.connectTimeoutMs, http.readTimeoutMs   timeouts (default 60s each)
+    //   http.trustAll=true                          skip certificate checks
+    //   http.redirect.<host>=<base url>             send that host's requests to another server,
+    //                                               e.g. a local stand-in during testing
+    static final class HttpTransport {
+        private static volatile Duration connectTimeout =
+            Duration.ofMillis(LauncherConfig.getInt("http.connectTimeoutMs", DOWNLOAD_TIMEOUT));
+        private static volatile Duration readTimeout =
+            Duration.ofMillis(LauncherConfig.getInt("http.readTimeoutMs", DOWNLOAD_TIMEOUT));
+        private static volatile UnaryOperator<URI> rewriter = HttpTransport::redirect;
+        private static volatile HttpClient client;
+        private static final Set<Body> openBodies = ConcurrentHashMap.newKeySet();
+        private static final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "ctl-http-watchdog");
+            t.setDaemon(true);
+            return t;
+        });
+        
+        static {
+            watchdog.scheduleWithFixedDelay(HttpTransport::closeStalled, 1, 1, TimeUnit.SECONDS);
+        }
+        
+        private HttpTransport() {}
+        
+        static HttpClient client() {
+            HttpClient c = client;
+            if (c == null) {
+                synchronized (HttpTransport.class) {
+                    c = client;
+                    if (c == null) client = c = build();
+                }
+            }
+            return c;
+        }
+        
+        private static HttpClient build() {
+            HttpClient.Builder builder = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(connectTimeout);
+            if (LauncherConfig.getBool("http.trustAll", false)) {
+                builder.sslContext(trustAllContext());
+            }
+            return builder.build();
+        }
+        
+        // Takes effect for requests sent after the call; the pool is rebuilt on next use
+        static synchronized void setTimeouts(Duration connect, Duration read) {
+            connectTimeout = connect;
+            readTimeout = read;
+            client = null;
+        }
+        
+        static void setRewriter(UnaryOperator<URI> r) {
+            rewriter = r;
+        }
+        
+        static URI resolve(String url) {
+            return rewriter.apply(URI.create(url));
+        }
+        
+        private static URI redirect(URI uri) {
+            String base = uri.getHost() != null ? LauncherConfig.get("http.redirect." + uri.getHost(), null) : null;
+            if (base == null) return uri;
+            String target = base.replaceAll("/+$", "") + uri.getRawPath();
+            if (uri.getRawQuery() != null) target += "?" + uri.getRawQuery();
+            return URI.create(target);
+        }
+        
+        // headers are name/value pairs
+        static Response send(String method, String url, String... headers) throws IOException {
+            return send(readTimeout, method, url, headers);
+        }
+        
+        // timeout bounds connecting and waiting for the response headers of this request
+        static Response send(Duration timeout, String method, String url, String... headers) throws IOException {
+            HttpRequest.Builder request = HttpRequest.newBuilder(resolve(url))
+                .method(method, HttpRequest.BodyPublishers.noBody())
+                .timeout(timeout)
+                .header("User-Agent", "CTLauncher/1.0");
+            for (int i = 0; i + 1 < headers.length; i += 2) {
+                request.header(headers[i], headers[i + 1]);
+            }
+            try {
+                return new Response(client().send(request.build(), HttpResponse.BodyHandlers.ofInputStream()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted requesting " + url);
+            }
+        }
+        
+        static final class Response implements Closeable {
+            private final HttpResponse<InputStream> response;
+            private final Body body;
+            
+            Response(HttpResponse<InputStream> response) {
+                this.response = response;
+                this.body = new Body(response.body());
+            }
+            
+            int status() {
+                return response.statusCode();
+            }
+            
+            String header(String name) {
+                return response.headers().firstValue(name).orElse(null);
+            }
+            
+            long contentLength() {
+                return response.headers().firstValueAsLong("Content-Length").orElse(-1);
+            }
+            
+            InputStream body() {
+                return body;
+            }
+            
+            // Closing an unread body discards it so the connection goes back to the pool
+            @Override
+            public void close() throws IOException {
+                body.close();
+            }
+        }
+        
+        // The request timeout only covers the response headers; the watchdog closes bodies that
+        // stop delivering bytes for longer than the read timeout, like a socket read timeout
+        private static final class Body extends FilterInputStream {
+            private volatile long lastRead = System.nanoTime();
+            private volatile boolean stalled;
+            
+            Body(InputStream in) {
+                super(in);
+                openBodies.add(this);
+            }
+            
+            @Override
+            public int read() throws IOException {
+                try {
+                    int b = super.read();
+                    lastRead = System.nanoTime();
+                    return b;
+                } catch (IOException e) {
+                    throw stalled ? new SocketTimeoutException("Read timed out") : e;
+                }
+            }
+            
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                try {
+                    int n = super.read(b, off, len);
+                    lastRead = System.nanoTime();
+                    return n;
+                } catch (IOException e) {
+                    throw stalled ? new SocketTimeoutException("Read timed out") : e;
+                }
+            }
+            
+            @Override
+            public void close() throws IOException {
+                openBodies.remove(this);
+                super.close();
+            }
+        }
+        
+        private static void closeStalled() {
+            long limit = readTimeout.toNanos();
+            long now = System.nanoTime();
+            for (Body body : openBodies) {
+                if (now - body.lastRead > limit) {
+                    body.stalled = true;
+                    try {
+                        body.close();
+                    } catch (IOException e) {
+                        // Already broken; the reader sees the timeout
+                    }
+                }
+            }
+        }
+        
+        private static SSLContext trustAllContext() {
+            TrustManager[] trustAllCerts = new TrustManager[]{
+                new X509ExtendedTrustManager() {
+                    public java.security.cert.X509Certificate[] getAcceptedIssuers() { return new java.security.cert.X509Certificate[0]; }
+                    public void checkClientTrusted(java.security.cert.X509Certificate[] certs, String authType) {}
+                    public void checkServerTrusted(java.security.cert.X509Certificate[] certs, String authType) {}
+                    public void checkClientTrusted(java.security.cert.X509Certificate[] certs, String authType, Socket socket) {}
+                    public void checkServerTrusted(java.security.cert.X509Certificate[] certs, String authType, Socket socket) {}
+                    public void checkClientTrusted(java.security.cert.X509Certificate[] certs, String authType, SSLEngine engine) {}
+                    public void checkServerTrusted(java.security.cert.X509Certificate[] certs, String authType, SSLEngine engine) {}
+                }
+            };
+            try {
+                SSLContext sc = SSLContext.getInstance("TLS");
+                sc.init(null, trustAllCerts, new SecureRandom());
+                return sc;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+    
+    // ═══════════════════════════════════════════════════════════════════════════════
+    // HTTP DOWNLOADER
+    // ═══════════════════════════════════════════════════════════════════════════════
+    // Downloads stage into <dest>.part and are committed with an atomic move once verified.
+    // A dropped connection resumes from the partial file with a Range request; large files
+    // with a known size are fetched as parallel byte-range chunks whose progress is kept in
+    // <dest>.part.ranges so a later attempt (or run) only fetches what is missing.
+    static class HttpDownloader {
+        private static final long CHUNKED_THRESHOLD = 8L << 20;
+        private static final long MIN_CHUNK_SIZE = 2L << 20;
+        private static final int MAX_CHUNKS = 4;
+        // download.transfer=stream switches back to the heap-buffer copy loop
+        static final boolean USE_NIO = !"stream".equalsIgnoreCase(LauncherConfig.get("download.transfer", "nio"));
+        static final int TRANSFER_BUFFER = Math.max(4, LauncherConfig.getInt("download.bufferKb", 64)) * 1024;
+        // download.preallocate=false leaves chunked part files sparse instead of writing their blocks out first
+        static final boolean PREALLOCATE = LauncherConfig.getBool("download.preallocate", true);
+        // Bandwidth cap for the calling thread's transfers (see Prefetcher); unset means none
+        static final ThreadLocal<Throttle> THROTTLE = new ThreadLocal<>();
+        private static final ThreadLocal<ByteBuffer> DIRECT_BUFFER =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(TRANSFER_BUFFER));
+        private static final ExecutorService chunkPool = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "ctl-chunk");
+            t.setDaemon(true);
+            return t;
+        });
+        // Installs running side by side (the CLI's --parallel, a prefetch and PLAY, other launcher
+        // processes) share libraries and assets. In this process one download per destination
+        // runs and later callers share its result; across processes a file lock keeps them from
+        // writing the same .part file. Lock files live in cache/locks, named by the SHA-1 of the
+        // destination path, so none are left among the libraries and asset objects; they are
+        // empty and never deleted.
+        private static final SingleFlight<Path> FLIGHTS = new SingleFlight<>();
+        private static final Path LOCK_DIR = Paths.get(CACHE_DIR, "locks");
+        
+        static void download(String url, Path dest, String sha1, long size) throws Exception {
+            download(url, dest, sha1, size, true);
+        }
+        
+        // usePeers=false goes straight to the origin (the LAN cache server itself uses this)
+        static void download(String url, Path dest, String sha1, long size, boolean usePeers) throws Exception {
+            Path target = dest.toAbsolutePath().normalize();
+            if (!FLIGHTS.run(target, () -> downloadLocked(url, target, sha1, size, usePeers))) {
+                Metrics.count("downloads.joined", 1);
+            }
+        }
+        
+        private static void downloadLocked(String url, Path dest, String sha1, long size, boolean usePeers) throws Exception {
+            Path lockPath = LOCK_DIR.resolve(toHex(newSha1().digest(dest.toString().getBytes(StandardCharsets.UTF_8))));
+            Files.createDirectories(LOCK_DIR);
+            Files.createDirectories(dest.getParent());
+            // Closing the channel releases the lock
+            try (FileChannel channel = FileChannel.open(lockPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                if (channel.tryLock() == null) {
+                    Metrics.count("downloads.lockWaits", 1);
+                    channel.lock();
+                }
+                // Another process may have finished it since the caller looked. Its download never
+                // reaches this process's index, so a miss there means checking the disk
+                boolean complete = sha1 != null && (InstalledIndex.verified(dest, sha1, size)
+                    || (Files.exists(dest) && (size < 0 || Files.size(dest) == size)
+                        && sha1.equalsIgnoreCase(sha1Of(dest))));
+                if (!complete) {
+                    Metrics.Span span = Metrics.span("downloadFile", url);
+                    try {
+                        downloadUnlocked(url, dest, sha1, size, usePeers);
+                    } finally {
+                        span.close();
+                    }
+                    Metrics.count("downloads.files", 1);
+                    Metrics.count("downloads.bytes", Files.size(dest));
+                }
+                InstalledIndex.record(dest, sha1);
+            }
+            // The lock file is kept: deleting it would let a newcomer lock a fresh file while a
+            // process queued on the old one is still about to enter
+        }
+        
+        private static void downloadUnlocked(String url, Path dest, String sha1, long size, boolean usePeers) throws Exception {
+            Path part = dest.resolveSibling(dest.getFileName() + ".part");
+            Path ranges = dest.resolveSibling(dest.getFileName() + ".part.ranges");
+            if (dest.getParent() != null) Files.createDirectories(dest.getParent());
+            
+            if (usePeers && sha1 != null && fetchFromPeers(url, part, sha1, size)) {
+                Metrics.count("downloads.peerHits", 1);
+                moveAtomically(part, dest);
+                InstallStamp.markChanged();
+                Files.deleteIfExists(ranges);
+                return;
+            }
+            
+            IOException last = null;
+            for (int attempt = 0; attempt < MAX_RETRIES; attempt++) {
+                if (attempt > 0) {
+                    Metrics.count("downloads.retries", 1);
+                    Thread.sleep(backoffDelay(attempt));
+                }
+                try {
+                    String actualSha1 = null;
+                    if (size < CHUNKED_THRESHOLD || !fetchChunked(url, part, ranges, size)) {
+                        actualSha1 = fetchResumable(url, part);
+                    }
+                    verify(url, part, sha1, size, actualSha1);
+                    moveAtomically(part, dest);
+                    InstallStamp.markChanged();
+                    Files.deleteIfExists(ranges);
+                    return;
+                } catch (HttpStatusException e) {
+                    if (!e.isRetryable()) throw e;
+                    last = e;
+                } catch (ChecksumException e) {
+                    // The partial data itself is bad; start over from scratch
+                    Files.deleteIfExists(part);
+                    Files.deleteIfExists(ranges);
+                    last = e;
+                } catch (IOException e) {
+                    last = e;
+                }
+            }
+            throw last;
+        }
+        
+        // Tries each reachable LAN peer (lan.peers) once; only a copy matching sha1 counts
+        private static boolean fetchFromPeers(String url, Path part, String sha1, long size) throws IOException {
+            for (LanCache.Peer peer : LanCache.peers()) {
+                if (!peer.isUp()) continue;
+                try (HttpTransport.Response resp = HttpTransport.send(LanCache.PEER_TIMEOUT, "GET", peer.urlFor(sha1, url, size))) {
+                    if (resp.status() != 200) continue; // the peer doesn't have it and couldn't fetch it
+                    MessageDigest md = newSha1();
+                    try (FileChannel out = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                            StandardOpenOption.TRUNCATE_EXISTING)) {
+                        copy(resp.body(), out, 0, Long.MAX_VALUE, md, null);
+                    }
+                    verify(peer.base, part, sha1, size, toHex(md.digest()));
+                    peer.hits.incrementAndGet();
+                    return true;
+                } catch (ChecksumException e) {
+                    System.err.println("LAN peer " + peer.base + " sent a bad copy of " + sha1);
+                    Files.deleteIfExists(part);
+                } catch (InterruptedIOException e) {
+                    throw e;
+                } catch (IOException e) {
+                    System.err.println("LAN peer " + peer.base + " unavailable - " + e.getMessage());
+                    peer.markDown();
+                }
+            }
+            return false;
+        }
+        
+        // Exponential backoff with jitter: a random delay in [base/2, base]
+        static long backoffDelay(int attempt) {
+            long base = Math.min(MAX_BACKOFF_DELAY, (long) RATE_LIMIT_DELAY << Math.min(attempt, 16));
+            return ThreadLocalRandom.current().nextLong(base / 2, base + 1);
+        }
+        
+        // Single stream that continues an existing .part file; returns the sha1 of the whole file
+        private static String fetchResumable(String url, Path part) throws IOException {
+            long existing = Files.exists(part) ? Files.size(part) : 0;
+            String[] headers = existing > 0 ? new String[]{"Range", "bytes=" + existing + "-"} : new String[0];
+            
+            MessageDigest md = newSha1();
+            try (HttpTransport.Response resp = HttpTransport.send("GET", url, headers)) {
+                int code = resp.status();
+                // 416: nothing left to fetch; verification decides whether the part is usable
+                if (code == 416) return null;
+                if (code >= 400) throw new HttpStatusException(code, url);
+                
+                String contentRange = resp.header("Content-Range");
+                boolean resumed = existing > 0 && code == 206
+                    && contentRange != null && contentRange.startsWith("bytes " + existing + "-");
+                if (!resumed) existing = 0;
+                if (resumed) updateDigest(md, part, existing);
+                
+                long length = resp.contentLength();
+                try (FileChannel out = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                    out.truncate(existing);
+                    long end = copy(resp.body(), out, existing, Long.MAX_VALUE, md, null);
+                    // A dropped connection can look like a clean EOF; keep the part and resume next attempt
+                    if (length >= 0 && end != existing + length) {
+                        throw new EOFException("Connection closed at byte " + end + " of " + url);
+                    }
+                }
+            }
+            return toHex(md.digest());
+        }
+        
+        // Parallel byte-range chunks into a preallocated part file; false if the server can't do ranges
+        private static boolean fetchChunked(String url, Path part, Path ranges, long size) throws Exception {
+            boolean acceptsRanges;
+            try (HttpTransport.Response head = HttpTransport.send("HEAD", url)) {
+                acceptsRanges = head.status() == 200 && "bytes".equalsIgnoreCase(head.header("Accept-Ranges"))
+                    && head.contentLength() == size;
+            }
+            if (!acceptsRanges) return false;
+            
+            int chunks = (int) Math.max(1, Math.min(MAX_CHUNKS, size / MIN_CHUNK_SIZE));
+            long chunkSize = (size + chunks - 1) / chunks;
+            AtomicLongArray done = loadRanges(ranges, part, size, chunks);
+            
+            try (FileChannel out = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                boolean resuming = false;
+                for (int i = 0; i < chunks; i++) resuming |= done.get(i) > 0;
+                if (!resuming) {
+                    // Chunks start past each other's data, and transferFrom writes nothing beyond EOF,
+                    // so the part file always gets its full length from the JSON size up front
+                    out.truncate(0);
+                    if (PREALLOCATE) reserve(out, size);
+                    else out.write(ByteBuffer.wrap(new byte[1]), size - 1);
+                }
+                
+                // Chunk threads share the caller's cap
+                Throttle throttle = THROTTLE.get();
+                List<Future<?>> futures = new ArrayList<>();
+                for (int i = 0; i < chunks; i++) {
+                    final int idx = i;
+                    long start = i * chunkSize;
+                    long end = Math.min(size, start + chunkSize);
+                    if (start + done.get(i) >= end) continue;
+                    futures.add(chunkPool.submit(() -> {
+                        THROTTLE.set(throttle);
+                        try {
+                            fetchRange(url, out, start + done.get(idx), end, n -> done.addAndGet(idx, n));
+                        } finally {
+                            THROTTLE.remove();
+                        }
+                        return null;
+                    }));
+                }
+                
+                Exception failure = null;
+                for (Future<?> f : futures) {
+                    try {
+                        f.get();
+                    } catch (ExecutionException e) {
+                        if (failure == null) failure = (Exception) e.getCause();
+                    }
+                }
+                if (failure != null) {
+                    saveRanges(ranges, size, done);
+                    throw failure;
+                }
+            }
+            return true;
+        }
+        
+        // Writes zeros over the whole length so the file system allocates every block now
+        private static void reserve(FileChannel out, long size) throws IOException {
+            ByteBuffer zeros = ByteBuffer.allocateDirect((int) Math.min(size, 1L << 20));
+            long pos = 0;
+            while (pos < size) {
+                zeros.clear().limit((int) Math.min(zeros.capacity(), size - pos));
+                pos += out.write(zeros, pos);
+            }
+        }
+        
+        private static void fetchRange(String url, FileChannel out, long from, long to, LongConsumer onBytes) throws IOException {
+            try (HttpTransport.Response resp = HttpTransport.send("GET", url, "Range", "bytes=" + from + "-" + (to - 1))) {
+                int code = resp.status();
+                if (code != 206) {
+                    throw code >= 400 ? new HttpStatusException(code, url) : new IOException("Range not honored for " + url);
+                }
+                // Chunks are hashed after assembly, so no digest is needed on the way in
+                long pos = copy(resp.body(), out, from, to, null, onBytes);
+                if (pos < to) throw new EOFException("Connection closed at byte " + pos + " of " + url);
+            }
+        }
+        
+        // Copies in -> out starting at position until EOF or limit; returns the end position
+        static long copy(InputStream in, FileChannel out, long position, long limit,
+                         MessageDigest md, LongConsumer onBytes) throws IOException {
+            Throttle throttle = THROTTLE.get();
+            if (throttle != null) in = throttle.wrap(in);
+            if (!USE_NIO) return copyStream(in, out, position, limit, md, onBytes);
+            ReadableByteChannel src = Channels.newChannel(in);
+            return md == null ? transferFrom(src, out, position, limit, onBytes)
+                              : copyDirect(src, out, position, limit, md, onBytes);
+        }
+        
+        // Fallback path: bytes go through a heap array
+        static long copyStream(InputStream in, FileChannel out, long position, long limit,
+                               MessageDigest md, LongConsumer onBytes) throws IOException {
+            byte[] buffer = new byte[8192];
+            ByteBuffer bb = ByteBuffer.wrap(buffer);
+            long pos = position;
+            int n;
+            while (pos < limit && (n = in.read(buffer, 0, (int) Math.min(buffer.length, limit - pos))) != -1) {
+                if (md != null) md.update(buffer, 0, n);
+                bb.clear().limit(n);
+                while (bb.hasRemaining()) {
+                    pos += out.write(bb, pos);
+                }
+                if (onBytes != null) onBytes.accept(n);
+            }
+            return pos;
+        }
+        
+        // Unhashed path: let the file channel pull straight from the socket channel
+        static long transferFrom(ReadableByteChannel src, FileChannel out, long position, long limit,
+                                 LongConsumer onBytes) throws IOException {
+            long step = Math.max(TRANSFER_BUFFER, 1L << 20);
+            long pos = position;
+            while (pos < limit) {
+                long n = out.transferFrom(src, pos, Math.min(step, limit - pos));
+                if (n <= 0) break;
+                pos += n;
+                if (onBytes != null) onBytes.accept(n);
+            }
+            return pos;
+        }
+        
+        // Hashed path: a reusable per-thread direct buffer feeds both the digest and the file
+        static long copyDirect(ReadableByteChannel src, FileChannel out, long position, long limit,
+                               MessageDigest md, LongConsumer onBytes) throws IOException {
+            ByteBuffer buf = DIRECT_BUFFER.get();
+            long pos = position;
+            while (pos < limit) {
+                buf.clear();
+                if (limit - pos < buf.capacity()) buf.limit((int) (limit - pos));
+                int n = src.read(buf);
+                if (n == -1) break;
+                buf.flip();
+                md.update(buf.duplicate());
+                while (buf.hasRemaining()) {
+                    pos += out.write(buf, pos);
+                }
+                if (onBytes != null) onBytes.accept(n);
+            }
+            return pos;
+        }
+        
+        private static void verify(String url, Path part, String sha1, long size, String actualSha1) throws IOException {
+            if (!Files.exists(part)) throw new ChecksumException("Nothing downloaded from " + url);
+            long actualSize = Files.size(part);
+            if (size >= 0 && actualSize != size) {
+                throw new ChecksumException("Size mismatch for " + url + " (got " + actualSize + ", expected " + size + ")");
+            }
+            if (sha1 == null) return;
+            if (actualSha1 == null) actualSha1 = sha1Of(part);
+            if (!sha1.equalsIgnoreCase(actualSha1)) {
+                throw new ChecksumException("Checksum mismatch for " + url + " (sha1 " + actualSha1 + ")");
+            }
+        }
+        
+        private static MessageDigest newSha1() {
+            try {
+                return MessageDigest.getInstance("SHA-1");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        
+        private static void updateDigest(MessageDigest md, Path file, long length) throws IOException {
+            try (InputStream in = Files.newInputStream(file)) {
+                byte[] buffer = new byte[65536];
+                long remaining = length;
+                int n;
+                while (remaining > 0 && (n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining))) != -1) {
+                    md.update(buffer, 0, n);
+                    remaining -= n;
+                }
+            }
+        }
+        
+        private static AtomicLongArray loadRanges(Path ranges, Path part, long size, int chunks) {
+            AtomicLongArray done = new AtomicLongArray(chunks);
+            try (DataInputStream in = new DataInputStream(Files.newInputStream(ranges))) {
+                if (Files.exists(part) && in.readLong() == size && in.readInt() == chunks) {
+                    for (int i = 0; i < chunks; i++) done.set(i, in.readLong());
+                }
+            } catch (IOException e) {
+                // No usable progress record; fetch every chunk
+            }
+            return done;
+        }
+        
+        private static void saveRanges(Path ranges, long size, AtomicLongArray done) {
+            try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(ranges))) {
+                out.writeLong(size);
+                out.writeInt(done.length());
+                for (int i = 0; i < done.length(); i++) out.writeLong(done.get(i));
+            } catch (IOException e) {
+                System.err.println("Failed to save download progress: " + e.getMessage());
+            }
+        }
+    }
+    
+    // ═══════════════════════════════════════════════════════════════════════════════
+    // JAVA RUNTIMES
+    // ═══════════════════════════════════════════════════════════════════════════════
+    // Picks the JVM a version asks for (javaVersion.component / majorVersion), in order:
+    //   java.path.<major> in launcher.properties (a JDK home or a java binary)
+    //   a JDK registered for exactly that major (`CTLauncher java register <home>`)
+    //   the managed runtime in JAVA_DIR/<component>, installed from java.runtimeManifest
+    //     (Mojang's runtime index by default) and shared by every version that needs it
+    //   a registered JDK of a newer major, for versions that need 17 or later
+    //   java on PATH
+    static final class JavaRuntimes {
+        static final String DEFAULT_MANIFEST =
+            "https://launchermeta.mojang.com/v1/products/java-runtime/2ec0cc96c44e5a76b9c8b7c39df7210883d12871/all.json";
+        private static final String MARKER = ".installed";
+        private static final Path REGISTRY = Paths.get(JAVA_DIR, "registered.properties");
+        private static final SingleFlight<String> INSTALLS = new SingleFlight<>();
+        private static final Map<Path, Integer> runtimeMajors = new ConcurrentHashMap<>();
+        
+        private JavaRuntimes() {}
+        
+        // Versions from before javaVersion existed all ran on Java 8
+        static int requiredMajor(VersionProfile profile) {
+            return profile.javaMajorVersion > 0 ? profile.javaMajorVersion : 8;
+        }
+        
+        static String component(VersionProfile profile) {
+            return profile.javaComponent != null ? profile.javaComponent : "jre-legacy";
+        }
+        
+        // Resolves without downloading anything; install() has already provisioned what it could
+        static String javaExecutable(VersionProfile profile) {
+            int major = requiredMajor(profile);
+            String configured = LauncherConfig.get("java.path." + major, null);
+            if (configured != null) {
+                Path exe = executableIn(Paths.get(configured));
+                return exe != null ? exe.toString() : configured;
+            }
+            Path exe = registered(major, false);
+            if (exe == null) exe = managedExecutable(component(profile));
+            if (exe == null) exe = registered(major, true);
+            return exe != null ? exe.toString() : "java";
+        }
+        
+        // ── Managed runtimes ──
+        
+        static Path managedExecutable(String component) {
+            Path root = Paths.get(JAVA_DIR, component);
+            return Files.exists(root.resolve(MARKER)) ? executableIn(root) : null;
+        }
+        
+        // Installs the version's runtime unless something else already covers it; returns how
+        // many files could not be downloaded (a missing platform build is not a failure)
+        static int install(VersionProfile profile, DownloadScheduler scheduler, BiConsumer<Integer, Integer> progress)
+                throws Exception {
+            int major = requiredMajor(profile);
+            String component = component(profile);
+            if (LauncherConfig.get("java.path." + major, null) != null || registered(major, false) != null) return 0;
+            
+            // One install per component at a time; parallel CLI installs share it. A caller that
+            // joined an install which left the runtime missing tries again itself
+            int[] failed = new int[1];
+            while (!INSTALLS.run(component, () -> failed[0] = installComponent(component, scheduler, progress))) {
+                if (managedExecutable(component) != null) return 0;
+            }
+            return failed[0];
+        }
+        
+        private static int installComponent(String component, DownloadScheduler scheduler,
+                                             BiConsumer<Integer, Integer> progress) throws Exception {
+            if (managedExecutable(component) != null) return 0;
+            
+            List<Object> builds = Json.arr(Json.obj(Json.parseObject(fetchIndex()), platform()), component);
+            if (builds.isEmpty()) {
+                System.err.println("No " + component + " runtime for " + platform() + "; using java from PATH");
+                return 0;
+            }
+            Artifact manifest = Artifact.fromJson(Json.obj(builds.get(0), "manifest"), component + ".json");
+            Path manifestPath = Paths.get(JAVA_DIR, component + ".json");
+            if (!artifactStore.isInstalled(manifest, manifestPath)) artifactStore.install(manifest, manifestPath);
+            
+            Path root = Paths.get(JAVA_DIR, component);
+            Map<String, Object> files = Json.obj(Json.parseObject(
+                new String(Files.readAllBytes(manifestPath), StandardCharsets.UTF_8)), "files");
+            List<DownloadScheduler.Job> jobs = new ArrayList<>();
+            List<Path> executables = new ArrayList<>();
+            Map<Path, String> links = new LinkedHashMap<>();
+            for (String name : files.keySet()) {
+                Map<String, Object> entry = Json.obj(files, name);
+                Path target = root.resolve(name).normalize();
+                if (!target.startsWith(root)) continue;
+                String type = Json.str(entry, "type");
+                if ("directory".equals(type)) {
+                    Files.createDirectories(target);
+                } else if ("link".equals(type)) {
+                    links.put(target, Json.str(entry, "target"));
+                } else if ("file".equals(type)) {
+                    Artifact raw = Artifact.fromJson(Json.path(entry, "downloads", "raw"), name);
+                    if (raw == null) continue;
+                    if (Json.bool(entry, "executable", false)) executables.add(target);
+                    if (!artifactStore.isInstalled(raw, target)) jobs.add(new DownloadScheduler.Job(raw, target.toString()));
+                }
+            }
+            
+            int total = jobs.size();
+            List<DownloadScheduler.Job> failed = scheduler.runAll(jobs,
+                job -> artifactStore.install(job.artifact, Paths.get(job.destPath)), done -> progress.accept(done, total));
+            for (DownloadScheduler.Job job : failed) {
+                System.err.println("Failed to download: " + job.destPath + " - " + job.error.getMessage());
+            }
+            if (!failed.isEmpty()) return failed.size();
+            
+            for (Path exe : executables) exe.toFile().setExecutable(true, false);
+            for (Map.Entry<Path, String> link : links.entrySet()) {
+                if (Files.exists(link.getKey(), LinkOption.NOFOLLOW_LINKS) || link.getValue() == null) continue;
+                Files.createDirectories(link.getKey().getParent());
+                try {
+                    Files.createSymbolicLink(link.getKey(), Paths.get(link.getValue()));
+                } catch (UnsupportedOperationException | IOException e) {
+                    System.err.println("Could not link " + link.getKey() + " - " + e.getMessage());
+                }
+            }
+            Files.write(root.resolve(MARKER), manifest.sha1 != null ? manifest.sha1.getBytes(StandardCharsets.UTF_8) : new byte[0]);
+            InstallStamp.markChanged();
+            return 0;
+        }
+        
+        // Runtime index, refreshed when a runtime is installed; the cached copy is used offline
+        private static String fetchIndex() throws Exception {
+            Path cached = Paths.get(CACHE_DIR, "java-runtimes.json");
+            try {
+                downloadFile(LauncherConfig.get("java.runtimeManifest", DEFAULT_MANIFEST), cached.toString());
+            } catch (Exception e) {
+                if (!Files.exists(cached)) throw e;
+                System.err.println("Using cached Java runtime index - " + e.getMessage());
+            }
+            return new String(Files.readAllBytes(cached), StandardCharsets.UTF_8);
+        }
+        
+        // Platform keys of the runtime index
+        static String platform() {
+            String arch = Rules.CURRENT.osArch;
+            switch (Rules.CURRENT.osName) {
+                case "windows":
+                    return arch.equals("x86") ? "windows-x86" : arch.equals("arm64") ? "windows-arm64" : "windows-x64";
+                case "osx":
+                    return arch.equals("arm64") ? "mac-os-arm64" : "mac-os";
+                default:
+                    return arch.equals("x86") ? "linux-i386" : arch.equals("arm64") ? "linux-arm64" : "linux";
+            }
+        }
+        
+        // bin/java under a JDK/JRE home, including macOS bundle layouts; a java binary is returned as is
+        static Path executableIn(Path home) {
+            String exe = Rules.CURRENT.osName.equals("windows") ? "java.exe" : "java";
+            if (Files.isRegularFile(home) && home.getFileName().toString().equals(exe)) return home;
+            for (Path candidate : new Path[]{
+                    home.resolve("bin").resolve(exe),
+                    home.resolve("Contents/Home/bin").resolve(exe),
+                    home.resolve("jre.bundle/Contents/Home/bin").resolve(exe)}) {
+                if (Files.isRegularFile(candidate)) return candidate;
+            }
+            return null;
+        }
+        
+        // The java binary a command would run, with PATH lookup and symlinks resolved
+        static Path locate(String java) {
+            Path path = Paths.get(java);
+            if (path.isAbsolute() || path.getParent() != null) return resolveLinks(path);
+            String searchPath = System.getenv("PATH");
+            if (searchPath == null) return null;
+            for (String dir : searchPath.split(File.pathSeparator)) {
+                for (String name : new String[]{java, java + ".exe"}) {
+                    Path candidate = Paths.get(dir, name);
+                    if (Files.isRegularFile(candidate) && Files.isExecutable(candidate)) return resolveLinks(candidate);
+                }
+            }
+            return null;
+        }
+        
+        // /usr/bin/java is usually a symlink chain into the real JDK
+        private static Path resolveLinks(Path path) {
+            try {
+                return path.toRealPath();
+            } catch (IOException e) {
+                return null;
+            }
+        }
+        
+        // Major version of the runtime a located binary belongs to; 0 when it cannot be told
+        static int majorOf(Path java) {
+            Path home = java.getParent() != null ? java.getParent().getParent() : null;
+            if (home == null) return 0;
+            return runtimeMajors.computeIfAbsent(home, h -> {
+                try {
+                    return detectMajor(h, java);
+                } catch (IOException | RuntimeException e) {
+                    return 0;
+                }
+            });
+        }
+        
+        // ── Registered local JDKs ──
+        
+        // Records an existing JDK/JRE home under its major version; returns that major
+        static int register(Path home) throws IOException {
+            Path exe = executableIn(home);
+            if (exe == null) throw new FileNotFoundException("No java executable under " + home);
+            int major = detectMajor(home, exe);
+            Properties registry = loadRegistry();
+            registry.setProperty(String.valueOf(major), home.toAbsolutePath().toString());
+            Files.createDirectories(REGISTRY.getParent());
+            try (OutputStream out = Files.newOutputStream(REGISTRY)) {
+                registry.store(out, "Local JDKs by major version");
+            }
+            // Cached launch plans may now resolve a different java
+            InstallStamp.markChanged();
+            InstallStamp.flush();
+            return major;
+        }
+        
+        static Map<Integer, Path> registeredHomes() {
+            Map<Integer, Path> homes = new TreeMap<>();
+            Properties registry = loadRegistry();
+            for (String key : registry.stringPropertyNames()) {
+                try {
+                    homes.put(Integer.parseInt(key), Paths.get(registry.getProperty(key)));
+                } catch (NumberFormatException e) {
+                    // Not ours; ignore
+                }
+            }
+            return homes;
+        }
+        
+        // exact: only that major; otherwise the oldest newer JDK, and only when 17+ is required
+        private static Path registered(int major, boolean newerAllowed) {
+            for (Map.Entry<Integer, Path> e : registeredHomes().entrySet()) {
+                boolean fits = newerAllowed ? major >= 17 && e.getKey() > major : e.getKey() == major;
+                if (!fits) continue;
+                Path exe = executableIn(e.getValue());
+                if (exe != null) return exe;
+            }
+            return null;
+        }
+        
+        private static Properties loadRegistry() {
+            Properties registry = new Properties();
+            if (Files.exists(REGISTRY)) {
+                try (InputStream in = Files.newInputStream(REGISTRY)) {
+                    registry.load(in);
+                } catch (IOException e) {
+                    System.err.println("Failed to read " + REGISTRY + " - " + e.getMessage());
+                }
+            }
+            return registry;
+        }
+        
+        // The release file when there is one, otherwise `java -version`
+        static int detectMajor(Path home, Path exe) throws IOException {
+            Path release = home.resolve("release");
+            if (Files.isRegularFile(release)) {
+                for (String line : Files.readAllLines(release, StandardCharsets.UTF_8)) {
+                    if (line.startsWith("JAVA_VERSION=")) return parseMajor(line.substring(13).replace("\"", ""));
+                }
+            }
+            Process p = new ProcessBuilder(exe.toString(), "-version").redirectErrorStream(true).start();
+            String output = new String(p.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+            Matcher m = Pattern.compile("version \"([^\"]+)\"").matcher(output);
+            if (!m.find()) throw new IOException("Cannot tell the Java version of " + exe);
+            return parseMajor(m.group(1));
+        }
+        
+        // "1.8.0_302" -> 8, "17.0.2" -> 17, "21" -> 21
+        static int parseMajor(String version) {
+            String[] parts = version.split("[._+-]");
+            int first = Integer.parseInt(parts[0]);
+            return first == 1 && parts.length > 1 ? Integer.parseInt(parts[1]) : first;
+        }
+    }
+
+    // ═══════════════════════════════════════════════════════════════════════════════
+    // JVM TUNING
+    // ═══════════════════════════════════════════════════════════════════════════════
+    // Named GC profiles for the game JVM plus a heap planner. The RAM slider is the player's
+    // ceiling: the planner lowers it to what this machine can give each game that runs at once
+    // (jvm.instances, and whatever is already running at spawn) without swapping, but never
+    // below what the version's era needs. Profile flags go before the version JSON's
+    // arguments.jvm; an option the JSON sets itself, or a GC it selects, wins over the profile.
+    //   auto        low-memory on small machines or heaps, g1 otherwise
+    //   g1          tuned G1 with a fixed, pre-touched heap: short pauses once warmed up
+    //   zgc         generational ZGC on Java 21+ (plain ZGC on 15-20, g1 before that)
+    //   low-memory  G1 that starts small and hands freed heap back to the OS
+    //   none        -Xmx only, as before
+    //   jvm.profile=auto, jvm.instances=1, jvm.osReserveMb=1536
+    static final class JvmTuning {
+        static final List<String> PROFILES = Arrays.asList("auto", "g1", "zgc", "low-memory", "none");
+        private static final List<String> G1_TUNED = Arrays.asList(
+            "-XX:+UseG1GC", "-XX:+ParallelRefProcEnabled", "-XX:MaxGCPauseMillis=50",
+            "-XX:+UnlockExperimentalVMOptions", "-XX:+DisableExplicitGC", "-XX:+AlwaysPreTouch",
+            "-XX:G1NewSizePercent=30", "-XX:G1MaxNewSizePercent=40", "-XX:G1HeapRegionSize=8M",
+            "-XX:G1ReservePercent=20", "-XX:G1HeapWastePercent=5", "-XX:G1MixedGCCountTarget=4",
+            "-XX:InitiatingHeapOccupancyPercent=15", "-XX:G1MixedGCLiveThresholdPercent=90",
+            "-XX:SurvivorRatio=32", "-XX:+PerfDisableSharedMem", "-XX:MaxTenuringThreshold=1");
+        private static final Pattern HEAP_FLAG = Pattern.compile("-X(mx|ms)(\\d+)([kKmMgG]?)");
+        
+        private JvmTuning() {}
+        
+        static String defaultProfile() {
+            String profile = LauncherConfig.get("jvm.profile", "auto");
+            return PROFILES.contains(profile) ? profile : "auto";
+        }
+        
+        // Everything the planned flags depend on besides the version; part of the launch plan key
+        static String planKey(String profile) {
+            return profile + "|" + physicalMb() + "|" + LauncherConfig.getInt("jvm.instances", 1)
+                + "|" + LauncherConfig.getInt("jvm.osReserveMb", 1536);
+        }
+        
+        // ── Heap planner ──
+        
+        static long physicalMb() {
+            java.lang.management.OperatingSystemMXBean os = java.lang.management.ManagementFactory.getOperatingSystemMXBean();
+            if (os instanceof com.sun.management.OperatingSystemMXBean) {
+                return ((com.sun.management.OperatingSystemMXBean) os).getTotalMemorySize() >> 20;
+            }
+            return 0;
+        }
+        
+        // Heap each of `instances` games can have: physical memory minus the OS reserve, split
+        // between the games, minus each game's off-heap share (metaspace, code cache, GL buffers)
+        static int budgetMb(int instances) {
+            long physical = physicalMb();
+            if (physical <= 0) return Integer.MAX_VALUE;
+            long reserve = Math.max(LauncherConfig.getInt("jvm.osReserveMb", 1536), physical / 4);
+            long perGame = (physical - reserve) / Math.max(1, instances);
+            return (int) Math.max(512, perGame - Math.max(512, perGame / 4));
+        }
+        
+        // Least heap a version runs acceptably with, by the Java it was built for
+        static int eraFloorMb(int javaMajor) {
+            return javaMajor <= 8 ? 1024 : javaMajor < 21 ? 2048 : 3072;
+        }
+        
+        static int plannedHeapMb(int requestedGb, int javaMajor, int instances) {
+            int requested = requestedGb * 1024;
+            int budget = budgetMb(instances);
+            int floor = Math.min(requested, eraFloorMb(javaMajor));
+            if (budget < floor) {
+                System.err.println("Only " + budget + " MB per game fits in memory; using " + floor + " MB anyway");
+            }
+            return Math.max(floor, Math.min(requested, budget));
+        }
+        
+        // ── Profiles ──
+        
+        // Heap and GC flags for a profile, for a runtime of the given major version
+        static List<String> flags(String profile, int heapMb, int runtimeMajor) {
+            if (profile.equals("auto")) {
+                profile = physicalMb() > 0 && physicalMb() < 6144 || heapMb < 2048 ? "low-memory" : "g1";
+            }
+            if (profile.equals("zgc") && runtimeMajor < 15) profile = "g1";
+            
+            List<String> flags = new ArrayList<>();
+            switch (profile) {
+                case "g1":
+                    flags.add("-Xms" + heapMb + "M");
+                    flags.add("-Xmx" + heapMb + "M");
+                    flags.addAll(G1_TUNED);
+                    break;
+                case "zgc":
+                    flags.add("-Xms" + heapMb + "M");
+                    flags.add("-Xmx" + heapMb + "M");
+                    flags.add("-XX:+UseZGC");
+                    // Generational is opt-in on 21-22 and the only mode from 23
+                    if (runtimeMajor == 21 || runtimeMajor == 22) flags.add("-XX:+ZGenerational");
+                    flags.add("-XX:+AlwaysPreTouch");
+                    flags.add("-XX:+DisableExplicitGC");
+                    break;
+                case "low-memory":
+                    flags.add("-Xms" + Math.min(512, heapMb) + "M");
+                    flags.add("-Xmx" + heapMb + "M");
+                    flags.add("-XX:+UseG1GC");
+                    flags.add("-XX:MaxGCPauseMillis=100");
+                    flags.add("-XX:MinHeapFreeRatio=10");
+                    flags.add("-XX:MaxHeapFreeRatio=30");
+                    flags.add("-XX:+UseStringDeduplication");
+                    if (runtimeMajor >= 12) flags.add("-XX:G1PeriodicGCInterval=30000");
+                    break;
+                default:
+                    flags.add("-Xmx" + heapMb + "M");
+            }
+            return flags;
+        }
+        
+        // Profile flags followed by the version's own JVM arguments, minus profile flags the
+        // version overrides; when the version picks a GC only the profile's heap sizes remain
+        static List<String> merge(List<String> profileFlags, List<String> versionArgs) {
+            Set<String> overridden = new HashSet<>();
+            boolean versionPicksGc = false;
+            for (String arg : versionArgs) {
+                overridden.add(optionKey(arg));
+                if (arg.matches("-XX:\\+Use\\w*GC")) versionPicksGc = true;
+            }
+            List<String> merged = new ArrayList<>();
+            for (String flag : profileFlags) {
+                if (overridden.contains(optionKey(flag))) continue;
+                if (versionPicksGc && !HEAP_FLAG.matcher(flag).matches()) continue;
+                merged.add(flag);
+            }
+            merged.addAll(versionArgs);
+            return merged;
+        }
+        
+        // -XX:+Foo, -XX:-Foo and -XX:Foo=1 set the same option; likewise -Dname=, -Xmx, -Xss
+        static String optionKey(String arg) {
+            if (arg.startsWith("-XX:")) {
+                String option = arg.substring(4).replaceFirst("^[+-]", "");
+                int eq = option.indexOf('=');
+                return "-XX:" + (eq >= 0 ? option.substring(0, eq) : option);
+            }
+            if (arg.startsWith("-D")) {
+                int eq = arg.indexOf('=');
+                return eq >= 0 ? arg.substring(0, eq) : arg;
+            }
+            if (arg.matches("-X(mx|ms|mn|ss).*")) return arg.substring(0, 4);
+            return arg;
+        }
+        
+        // ── Spawn-time check ──
+        
+        // Launch plans are cached, so the heap is re-checked against the games running right
+        // now; a larger heap than fits is lowered instead of pushing the machine into swap
+        static List<String> fitRunning(List<String> cmd) {
+            long running = runningGames();
+            if (running == 0) return cmd;
+            int budget = budgetMb((int) running + 1);
+            List<String> result = new ArrayList<>(cmd);
+            for (int i = 0; i < result.size(); i++) {
+                Matcher m = HEAP_FLAG.matcher(result.get(i));
+                if (m.matches() && toMb(m.group(2), m.group(3)) > budget) {
+                    System.err.println("⚠ " + running + " game(s) already running; -X" + m.group(1) + " lowered to " + budget + " MB");
+                    result.set(i, "-X" + m.group(1) + budget + "M");
+                }
+            }
+            return result;
+        }
+        
+        // Games this launcher started, as seen by the OS (so CLI and window launches both count)
+        static long runningGames() {
+            return ProcessHandle.allProcesses()
+                .filter(p -> p.info().commandLine()
+                    .map(c -> c.contains("--gameDir") && c.contains(CTLAUNCHER_DIR))
+                    .orElse(false))
+                .count();
+        }
+        
+        private static long toMb(String amount, String unit) {
+            long value = Long.parseLong(amount);
+            switch (unit.toLowerCase()) {
+                case "g": return value * 1024;
+                case "m": return value;
+                case "k": return value / 1024;
+                default: return value >> 20;
+            }
+        }
+    }
+
+    // ═══════════════════════════════════════════════════════════════════════════════
+    // LAN CACHE
+    // ═══════════════════════════════════════════════════════════════════════════════
+    // One machine runs `CTLauncher serve` and the others list it in lan.peers; every download
+    // with a known SHA-1 is tried against the peers before the origin. The server answers
+    // /sha1/<hash> from its store and asset objects; on a miss it fetches the origin URL the
+    // client passed along (Mojang hosts only, see lan.originHosts) into its own store first,
+    // so the uplink carries each file once per lab. It also serves /libraries/, /versions/
+    // and /assets/ as plain mirrors of the local directories.
+    //   lan.peers=http://10.0.0.5:25580,http://mirror.lab:25580
+    //   lan.port=25580, lan.threads=16
+    //   lan.probeTimeoutMs=2000   quick reachability check before a peer is used
+    //   lan.peerTimeoutMs=120000  per file; generous because a miss makes the server fetch first
+    static final class LanCache {
+        static final int DEFAULT_PORT = 25580;
+        private static final long PEER_RECHECK_MS = 60000;
+        private static final long PEER_BACKOFF_MS = 300000;
+        private static final Duration PROBE_TIMEOUT = Duration.ofMillis(LauncherConfig.getInt("lan.probeTimeoutMs", 2000));
+        static final Duration PEER_TIMEOUT = Duration.ofMillis(LauncherConfig.getInt("lan.peerTimeoutMs", 120000));
+        private static final List<Peer> peers = parsePeers(LauncherConfig.get("lan.peers", ""));
+        
+        private LanCache() {}
+        
+        static final class Peer {
+            final String base;
+            private volatile boolean up;
+            private volatile long checkedUntil;
+            final AtomicLong hits = new AtomicLong();
+            
+            Peer(String base) {
+                this.base = base.replaceAll("/+$", "");
+            }
+            
+            // A dead peer costs one short probe per backoff period rather than a timeout per file
+            boolean isUp() {
+                if (System.currentTimeMillis() < checkedUntil) return up;
+                synchronized (this) {
+                    long now = System.currentTimeMillis();
+                    if (now >= checkedUntil) {
+                        up = probe();
+                        checkedUntil = now + (up ? PEER_RECHECK_MS : PEER_BACKOFF_MS);
+                    }
+                    return up;
+                }
+            }
+            
+            void markDown() {
+                up = false;
+                checkedUntil = System.currentTimeMillis() + PEER_BACKOFF_MS;
+            }
+            
+            private boolean probe() {
+                try (HttpTransport.Response resp = HttpTransport.send(PROBE_TIMEOUT, "GET", base + "/status")) {
+                    return resp.status() == 200;
+                } catch (IOException e) {
+                    System.err.println("LAN peer " + base + " unreachable - " + e.getMessage());
+                    return false;
+                }
+            }
+            
+            String urlFor(String sha1, String origin, long size) {
+                return base + "/sha1/" + sha1 + "?size=" + size
+                    + "&origin=" + URLEncoder.encode(origin, StandardCharsets.UTF_8);
+            }
+        }
+        
+        private static List<Peer> parsePeers(String list) {
+            List<Peer> result = new ArrayList<>();
+            for (String p : list.split(",")) {
+                if (!p.trim().isEmpty()) result.add(new Peer(p.trim()));
+            }
+            return Collections.unmodifiableList(result);
+        }
+        
+        static List<Peer> peers() {
+            return peers;
+        }
+        
+        // ── Server ──
+        
+        static final class Server {
+            private static final Pattern SHA1 = Pattern.compile("[0-9a-f]{40}");
+            private final HttpServer http;
+            private final ExecutorService workers;
+            private final Set<String> originHosts;
+            final AtomicLong served = new AtomicLong();
+            final AtomicLong bytesServed = new AtomicLong();
+            final AtomicLong originFetches = new AtomicLong();
+            
+            Server(int port) throws IOException {
+                originHosts = new HashSet<>(Arrays.asList(LauncherConfig.get("lan.originHosts",
+                    "piston-data.mojang.com,piston-meta.mojang.com,launcher.mojang.com,launchermeta.mojang.com,"
+                        + "libraries.minecraft.net,resources.download.minecraft.net").split("\\s*,\\s*")));
+                workers = Executors.newFixedThreadPool(Math.max(1, LauncherConfig.getInt("lan.threads", 16)), r -> {
+                    Thread t = new Thread(r, "ctl-lan");
+                    t.setDaemon(true);
+                    return t;
+                });
+                http = HttpServer.create(new InetSocketAddress(port), 0);
+                http.setExecutor(workers);
+                http.createContext("/sha1/", this::handleSha1);
+                http.createContext("/libraries/", ex -> handleStatic(ex, Paths.get(LIBRARIES_DIR)));
+                http.createContext("/versions/", ex -> handleStatic(ex, Paths.get(VERSIONS_DIR)));
+                http.createContext("/assets/", ex -> handleStatic(ex, Paths.get(ASSETS_DIR)));
+                http.createContext("/status", this::handleStatus);
+            }
+            
+            void start() {
+                http.start();
+            }
+            
+            void stop() {
+                http.stop(0);
+                workers.shutdown();
+            }
+            
+            int port() {
+                return http.getAddress().getPort();
+            }
+            
+            private void handleSha1(HttpExchange ex) throws IOException {
+                try {
+                    String sha1 = ex.getRequestURI().getPath().substring("/sha1/".length()).toLowerCase();
+                    if (!SHA1.matcher(sha1).matches()) {
+                        sendStatus(ex, 400);
+                        return;
+                    }
+                    Path file = locate(sha1);
+                    if (file == null) file = fetchFromOrigin(sha1, query(ex.getRequestURI()));
+                    if (file == null) {
+                        sendStatus(ex, 404);
+                        return;
+                    }
+                    sendFile(ex, file);
+                } finally {
+                    ex.close();
+                }
+            }
+            
+            private Path locate(String sha1) {
+                Path obj = artifactStore.objectPath(sha1);
+                if (Files.isRegularFile(obj)) return obj;
+                Path asset = Paths.get(ASSETS_DIR, "objects", sha1.substring(0, 2), sha1);
+                return Files.isRegularFile(asset) ? asset : null;
+            }
+            
+            // Cache miss: pull it into our own store (verified), once, then serve it
+            private Path fetchFromOrigin(String sha1, Map<String, String> query) {
+                String origin = query.get("origin");
+                if (origin == null) return null;
+                URI uri;
+                try {
+                    uri = URI.create(origin);
+                } catch (IllegalArgumentException e) {
+                    return null;
+                }
+                if (uri.getHost() == null || !originHosts.contains(uri.getHost())
+                        || !("https".equals(uri.getScheme()) || "http".equals(uri.getScheme()))) {
+                    return null;
+                }
+                long size;
+                try {
+                    size = Long.parseLong(query.getOrDefault("size", "-1"));
+                } catch (NumberFormatException e) {
+                    size = -1;
+                }
+                
+                Path obj = artifactStore.objectPath(sha1);
+                try {
+                    // Peer lookups are skipped here: the server is the one that talks to the origin
+                    HttpDownloader.download(origin, obj, sha1, size, false);
+                    originFetches.incrementAndGet();
+                    return obj;
+                } catch (Exception e) {
+                    System.err.println("LAN cache: origin fetch failed for " + origin + " - " + e.getMessage());
+                    return null;
+                }
+            }
+            
+            private void handleStatic(HttpExchange ex, Path root) throws IOException {
+                try {
+                    String context = ex.getHttpContext().getPath();
+                    String rel = ex.getRequestURI().getPath().substring(context.length());
+                    Path file = root.resolve(rel).normalize();
+                    if (!file.startsWith(root) || !Files.isRegularFile(file)) {
+                        sendStatus(ex, 404);
+                        return;
+                    }
+                    sendFile(ex, file);
+                } finally {
+                    ex.close();
+                }
+            }
+            
+            private void handleStatus(HttpExchange ex) throws IOException {
+                try {
+                    byte[] body = ("{\"served\":" + served.get() + ",\"bytes\":" + bytesServed.get()
+                        + ",\"originFetches\":" + originFetches.get() + "}").getBytes(StandardCharsets.UTF_8);
+                    ex.getResponseHeaders().set("Content-Type", "application/json");
+                    ex.sendResponseHeaders(200, body.length);
+                    ex.getResponseBody().write(body);
+                } finally {
+                    ex.close();
+                }
+            }
+            
+            private void sendFile(HttpExchange ex, Path file) throws IOException {
+                long size = Files.size(file);
+                ex.getResponseHeaders().set("Content-Type", "application/octet-stream");
+                if ("HEAD".equals(ex.getRequestMethod())) {
+                    ex.getResponseHeaders().set("Content-Length", String.valueOf(size));
+                    ex.sendResponseHeaders(200, -1);
+                    return;
+                }
+                if (!"GET".equals(ex.getRequestMethod())) {
+                    sendStatus(ex, 405);
+                    return;
+                }
+                ex.sendResponseHeaders(200, size);
+                try (OutputStream out = ex.getResponseBody()) {
+                    Files.copy(file, out);
+                }
+                served.incrementAndGet();
+                bytesServed.addAndGet(size);
+            }
+            
+            private static void sendStatus(HttpExchange ex, int status) throws IOException {
+                ex.sendResponseHeaders(status, -1);
+            }
+            
+            private static Map<String, String> query(URI uri) {
+                Map<String, String> params = new HashMap<>();
+                if (uri.getRawQuery() == null) return params;
+                for (String pair : uri.getRawQuery().split("&")) {
+                    int eq = pair.indexOf('=');
+                    if (eq > 0) {
+                        params.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                                   URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+                    }
+                }
+                return params;
+            }
+        }
+    }
+
+    // ═══════════════════════════════════════════════════════════════════════════════
+    // ARTIFACT STORE
+    // ═══════════════════════════════════════════════════════════════════════════════
+    static final class Artifact {
+        final String path;
+        final String url;
+        final String sha1;
+        final long size;
+        
+        Artifact(String path, String url, String sha1, long size) {
+            this.path = path;
+            this.url = url;
+            this.sha1 = sha1 != null ? sha1.toLowerCase() : null;
+            this.size = size;
+        }
+        
+        // Reads a {path, url, sha1, size} download entry; defaultPath is used when it has no path
+        static Artifact fromJson(Map<String, Object> node, String defaultPath) {
+            if (node == null) return null;
+            String path = Json.str(node, "path");
+            if (path == null) path = defaultPath;
+            String url = Json.str(node, "url");
+            if (path == null || url == null) return null;
+            return new Artifact(path, url, Json.str(node, "sha1"), Json.num(node, "size", -1));
+        }
+    }
+    
+    // Content-addressed copies of every verified artifact under store/sha1/xx/<sha1>.
+    // Install paths (libraries, version jars) are hard links into the store, so versions
+    // sharing a jar keep one copy on disk and never download it twice.
+    static class ArtifactStore {
+        private final Path root;
+        
+        ArtifactStore(String root) {
+            this.root = Paths.get(root);
+        }
+        
+        Path objectPath(String sha1) {
+            return root.resolve("sha1").resolve(sha1.substring(0, 2)).resolve(sha1);
+        }
+        
+        boolean contains(Artifact a) {
+            if (a.sha1 == null) return false;
+            Path obj = objectPath(a.sha1);
+            if (InstalledIndex.verified(obj, a.sha1, a.size)) return true;
+            try {
+                return Files.exists(obj) && (a.size < 0 || Files.size(obj) == a.size);
+            } catch (IOException e) {
+                return false;
+            }
+        }
+        
+        boolean isInstalled(Artifact a, Path target) {
+            if (InstalledIndex.verified(target, a.sha1, a.size)) return true;
+            if (!Files.exists(target)) return false;
+            if (a.sha1 == null) return true;
+            try {
+                if (a.size >= 0 && Files.size(target) != a.size) return false;
+                Path obj = objectPath(a.sha1);
+                // Copied rather than linked (or pre-dates the store): verify the content itself
+                boolean intact = (Files.exists(obj) && Files.isSameFile(obj, target)) || a.sha1.equals(sha1Of(target));
+                if (intact) InstalledIndex.record(target, a.sha1);
+                return intact;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+        
+        // Makes target hold the verified artifact, downloading only when the store lacks it
+        void install(Artifact a, Path target) throws Exception {
+            if (a.sha1 == null) {
+                if (!Files.exists(target)) downloadFile(a.url, target.toString());
+                return;
+            }
+            
+            Path obj = objectPath(a.sha1);
+            if (!contains(a)) {
+                Files.createDirectories(obj.getParent());
+                if (Files.exists(target) && a.sha1.equals(sha1Of(target))) {
+                    // Adopt a valid file that was installed before the store existed
+                    Path tmp = Files.createTempFile(obj.getParent(), a.sha1, ".tmp");
+                    try {
+                        Files.copy(target, tmp, StandardCopyOption.REPLACE_EXISTING);
+                        moveAtomically(tmp, obj);
+                    } finally {
+                        Files.deleteIfExists(tmp);
+                    }
+                } else {
+                    // The downloader stages into <obj>.part and commits atomically itself
+                    downloadFile(a.url, obj.toString(), a.sha1, a.size);
+                }
+            }
+            linkOrCopy(obj, target);
+            InstalledIndex.record(target, a.sha1);
+        }
+    }
+    
+    // ═══════════════════════════════════════════════════════════════════════════════
+    // INSTALLED INDEX
+    // ═══════════════════════════════════════════════════════════════════════════════
+    // Size, mtime and SHA-1 of every file under ~/.ctlauncher the launcher has verified, so
+    // install checks and classpath building are map lookups instead of a stat (and often a
+    // hash) per file; on a network home directory each of those is a round trip. Entries come
+    // from verified downloads, links into the store and hashes computed anyway, and are saved
+    // to cache/installed.idx after each install and at exit. A WatchService on the directories
+    // holding entries drops an entry as soon as its file changes; every index.reconcileMinutes
+    // (default 10, and once at startup) each entry is re-checked in the background, which also
+    // covers file systems whose changes the watcher never hears about (NFS).
+    // index.enabled=false checks the disk every time instead.
+    static final class InstalledIndex {
+        private static final int FORMAT = 1;
+        private static final Path SNAPSHOT = Paths.get(CACHE_DIR, "installed.idx");
+        private static final Path ROOT = Paths.get(CTLAUNCHER_DIR).toAbsolutePath().normalize();
+        private static final Pattern SHA1 = Pattern.compile("[0-9a-f]{40}");
+        private static final boolean ENABLED = LauncherConfig.getBool("index.enabled", true);
+        private static final Map<Path, Entry> entries = new ConcurrentHashMap<>();
+        private static final AtomicBoolean dirty = new AtomicBoolean(false);
+        private static final Set<Path> watched = ConcurrentHashMap.newKeySet();
+        private static final WatchService watcher = ENABLED ? newWatcher() : null;
+        private static final ScheduledExecutorService background = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "ctl-index");
+            t.setDaemon(true);
+            return t;
+        });
+        
+        static {
+            if (ENABLED) {
+                load();
+                if (watcher != null) {
+                    Thread t = new Thread(InstalledIndex::watchLoop, "ctl-index-watch");
+                    t.setDaemon(true);
+                    t.start();
+                }
+                long minutes = Math.max(1, LauncherConfig.getInt("index.reconcileMinutes", 10));
+                background.execute(() -> {
+                    for (Path file : entries.keySet()) watch(file.getParent());
+                    reconcile();
+                });
+                background.scheduleWithFixedDelay(InstalledIndex::reconcile, minutes, minutes, TimeUnit.MINUTES);
+                Runtime.getRuntime().addShutdownHook(new Thread(InstalledIndex::save, "ctl-index-save"));
+            }
+        }
+        
+        private static final class Entry {
+            final long size;
+            final long mtime;
+            final String sha1;
+            // Entries from the snapshot may have changed while no launcher ran; until the startup
+            // reconciliation gets to them, the first lookup stats the file (it never re-hashes)
+            volatile boolean confirmed;
+            
+            Entry(long size, long mtime, String sha1, boolean confirmed) {
+                this.size = size;
+                this.mtime = mtime;
+                this.sha1 = sha1;
+                this.confirmed = confirmed;
+            }
+        }
+        
+        private InstalledIndex() {}
+        
+        // True when file is known to hold this content; false means "look at the disk"
+        static boolean verified(Path file, String sha1, long size) {
+            if (!ENABLED || sha1 == null) return false;
+            Entry e = lookup(key(file));
+            boolean hit = e != null && sha1.equalsIgnoreCase(e.sha1) && (size < 0 || e.size == size);
+            Metrics.count(hit ? "index.hits" : "index.misses", 1);
+            return hit;
+        }
+        
+        static boolean contains(Path file) {
+            return ENABLED && lookup(key(file)) != null;
+        }
+        
+        private static Entry lookup(Path key) {
+            Entry e = entries.get(key);
+            if (e == null || e.confirmed) return e;
+            check(key);
+            return entries.get(key);
+        }
+        
+        // file was just written or checked and holds sha1; costs one stat for its size and mtime
+        static void record(Path file, String sha1) {
+            if (!ENABLED || sha1 == null || !SHA1.matcher(sha1.toLowerCase()).matches()) return;
+            Path key = key(file);
+            if (!key.startsWith(ROOT)) return;
+            try {
+                java.nio.file.attribute.BasicFileAttributes attrs =
+                    Files.readAttributes(key, java.nio.file.attribute.BasicFileAttributes.class);
+                entries.put(key, new Entry(attrs.size(), attrs.lastModifiedTime().toMillis(), sha1.toLowerCase(), true));
+                dirty.set(true);
+                watch(key.getParent());
+            } catch (IOException e) {
+                forget(key);
+            }
+        }
+        
+        static void forget(Path file) {
+            if (entries.remove(key(file)) != null) dirty.set(true);
+        }
+        
+        private static Path key(Path file) {
+            return file.toAbsolutePath().normalize();
+        }
+        
+        // ── Keeping it current ──
+        
+        // Keeps (and confirms) an entry only while its file still has the size and mtime it was recorded with
+        private static void check(Path file) {
+            Entry e = entries.get(file);
+            if (e == null) return;
+            try {
+                java.nio.file.attribute.BasicFileAttributes attrs =
+                    Files.readAttributes(file, java.nio.file.attribute.BasicFileAttributes.class);
+                if (attrs.size() == e.size && attrs.lastModifiedTime().toMillis() == e.mtime) {
+                    e.confirmed = true;
+                    return;
+                }
+            } catch (IOException ex) {
+                // Gone
+            }
+            if (entries.remove(file, e)) {
+                dirty.set(true);
+                Metrics.count("index.invalidated", 1);
+            }
+        }
+        
+        static void reconcile() {
+            for (Path file : entries.keySet()) check(file);
+        }
+        
+        private static WatchService newWatcher() {
+            try {
+                return FileSystems.getDefault().newWatchService();
+            } catch (IOException | UnsupportedOperationException e) {
+                System.err.println("No file watcher; the installed index relies on reconciliation - " + e.getMessage());
+                return null;
+            }
+        }
+        
+        private static void watch(Path dir) {
+            if (watcher == null || dir == null || !watched.add(dir)) return;
+            try {
+                dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+            } catch (IOException e) {
+                // Out of watches or the directory is gone; reconciliation still covers it
+            }
+        }
+        
+        // Events are only hints: each named file is re-checked against the disk
+        private static void watchLoop() {
+            while (true) {
+                WatchKey key;
+                try {
+                    key = watcher.take();
+                } catch (InterruptedException | ClosedWatchServiceException e) {
+                    return;
+                }
+                Path dir = (Path) key.watchable();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        background.execute(InstalledIndex::reconcile);
+                    } else {
+                        check(dir.resolve((Path) event.context()));
+                    }
+                }
+                if (!key.reset()) watched.remove(dir);
+            }
+        }
+        
+        // ── Snapshot ──
+        
+        private static void load() {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    new GZIPInputStream(Files.newInputStream(SNAPSHOT))))) {
+                if (in.readInt() != FORMAT) return;
+                int n = in.readInt();
+                byte[] sha1 = new byte[20];
+                for (int i = 0; i < n; i++) {
+                    Path file = ROOT.resolve(in.readUTF());
+                    long size = in.readLong();
+                    long mtime = in.readLong();
+                    in.readFully(sha1);
+                    entries.put(file, new Entry(size, mtime, toHex(sha1), false));
+                }
+            } catch (NoSuchFileException e) {
+                // First run
+            } catch (IOException e) {
+                entries.clear();
+                System.err.println("Ignoring unreadable installed index: " + e.getMessage());
+            }
+        }
+        
+        static synchronized void save() {
+            if (!ENABLED || !dirty.getAndSet(false)) return;
+            try {
+                Files.createDirectories(SNAPSHOT.getParent());
+                Path tmp = SNAPSHOT.resolveSibling(SNAPSHOT.getFileName() + ".tmp");
+                List<Map.Entry<Path, Entry>> snapshot = new ArrayList<>(entries.entrySet());
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                        new GZIPOutputStream(Files.newOutputStream(tmp))))) {
+                    out.writeInt(FORMAT);
+                    out.writeInt(snapshot.size());
+                    for (Map.Entry<Path, Entry> e : snapshot) {
+                        out.writeUTF(ROOT.relativize(e.getKey()).toString().replace('\\', '/'));
+                        out.writeLong(e.getValue().size);
+                        out.writeLong(e.getValue().mtime);
+                        String sha1 = e.getValue().sha1;
+                        for (int i = 0; i < 40; i += 2) out.writeByte(Integer.parseInt(sha1.substring(i, i + 2), 16));
+                    }
+                }
+                moveAtomically(tmp, SNAPSHOT);
+            } catch (IOException e) {
+                dirty.set(true);
+                System.err.println("Failed to save the installed index: " + e.getMessage());
+            }
+        }
+    }
+
+    // ═══════════════════════════════════════════════════════════════════════════════
+    // NATIVES EXTRACTION
+    // ═══════════════════════════════════════════════════════════════════════════════
+    // Each natives jar is unpacked once into natives/<sha1>/ (shared by every version using
+    // that jar), entries in parallel, skipping files whose size and CRC already match. The
+    // version's natives directory then gets hard links to the shared files.
+    static class NativesExtractor {
+        private static final String MARKER = ".extracted";
+        
+        static final class Jar {
+            final Artifact artifact;
+            final Path file;
+            final List<String> exclude;
+            
+            Jar(Artifact artifact, Path file, List<String> exclude) {
+                this.artifact = artifact;
+                this.file = file;
+                this.exclude = exclude;
+            }
+        }
+        
+        static void extractAll(List<Jar> jars, Path destDir) throws Exception {
+            List<Path> cacheDirs = new ArrayList<>();
+            List<ZipFile> open = new ArrayList<>();
+            List<Future<?>> tasks = new ArrayList<>();
+            try {
+                for (Jar jar : jars) {
+                    if (!Files.exists(jar.file)) continue;
+                    String key = jar.artifact.sha1 != null ? jar.artifact.sha1 : sha1Hex(jar.artifact.path);
+                    Path cacheDir = Paths.get(NATIVES_CACHE_DIR, key);
+                    cacheDirs.add(cacheDir);
+                    
+                    String stamp = String.join("\n", jar.exclude);
+                    Path marker = cacheDir.resolve(MARKER);
+                    if (Files.exists(marker) && stamp.equals(new String(Files.readAllBytes(marker), StandardCharsets.UTF_8))) {
+                        continue;
+                    }
+                    
+                    ZipFile zip = new ZipFile(jar.file.toFile());
+                    open.add(zip);
+                    for (ZipEntry entry : Collections.list(zip.entries())) {
+                        if (entry.isDirectory() || isExcluded(entry.getName(), jar.exclude)) continue;
+                        Path target = cacheDir.resolve(entry.getName()).normalize();
+                        if (!target.startsWith(cacheDir)) continue; // zip-slip guard
+                        tasks.add(cpuPool.submit(() -> {
+                            extractEntry(zip, entry, target);
+                            return null;
+                        }));
+                    }
+                }
+                
+                for (Future<?> f : tasks) {
+                    try {
+                        f.get();
+                    } catch (ExecutionException e) {
+                        throw (Exception) e.getCause();
+                    }
+                }
+            } finally {
+                for (ZipFile zip : open) zip.close();
+            }
+            
+            // Only mark jars complete once every entry made it to disk
+            for (Jar jar : jars) {
+                if (!Files.exists(jar.file)) continue;
+                String key = jar.artifact.sha1 != null ? jar.artifact.sha1 : sha1Hex(jar.artifact.path);
+                Path cacheDir = Paths.get(NATIVES_CACHE_DIR, key);
+                Files.createDirectories(cacheDir);
+                Files.write(cacheDir.resolve(MARKER), String.join("\n", jar.exclude).getBytes(StandardCharsets.UTF_8));
+            }
+            
+            for (Path cacheDir : cacheDirs) {
+                if (!Files.isDirectory(cacheDir)) continue;
+                try (java.util.stream.Stream<Path> files = Files.walk(cacheDir)) {
+                    for (Path file : (Iterable<Path>) files::iterator) {
+                        if (!Files.isRegularFile(file) || file.getFileName().toString().equals(MARKER)) continue;
+                        linkOrCopy(file, destDir.resolve(cacheDir.relativize(file).toString()));
+                    }
+                }
+            }
+        }
+        
+        static boolean isExcluded(String name, List<String> exclude) {
+            for (String prefix : exclude) {
+                if (name.startsWith(prefix)) return true;
+            }
+            return false;
+        }
+        
+        private static void extractEntry(ZipFile zip, ZipEntry entry, Path target) throws IOException {
+            if (Files.exists(target) && Files.size(target) == entry.getSize() && crcOf(target) == entry.getCrc()) {
+                return;
+            }
+            Files.createDirectories(target.getParent());
+            // Unique temp name: two installs may extract the same shared jar at once
+            Path tmp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+            try (InputStream in = zip.getInputStream(entry)) {
+                Files.copy(in, tmp, StandardCopyOption.REPLACE_EXISTING);
+                moveAtomically(tmp, target);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        }
+        
+        private static long crcOf(Path file) throws IOException {
+            CRC32 crc = new CRC32();
+            try (InputStream in = Files.newInputStream(file)) {
+                byte[] buffer = new byte[65536];
+                int n;
+                while ((n = in.read(buffer)) != -1) crc.update(buffer, 0, n);
+            }
+            return crc.getValue();
+        }
+        
+        private static String sha1Hex(String text) {
+            try {
+                return toHex(MessageDigest.getInstance("SHA-1").digest(text.getBytes(StandardCharsets.UTF_8)));
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+    
+    // ═══════════════════════════════════════════════════════════════════════════════
+    // ASSET SYNC
+    // ═══════════════════════════════════════════════════════════════════════════════
+    // Fetches the version's asset index, verifies local objects by hash on a parallel verifier
+    // pool, and hands each missing object to the download scheduler as soon as it is found, so
+    // hashing and downloading overlap instead of running as two serial passes.
+    static class AssetSync {
+        private static final int VERIFY_BATCH = 64;
+        
+        interface Progress {
+            void update(int verified, int unique, int downloaded, int missing);
+        }
+        
+        static final class AssetObject {
+            final String name;
+            final String hash;
+            final long size;
+            
+            AssetObject(String name, String hash, long size) {
+                this.name = name;
+                this.hash = hash;
+                this.size = size;
+            }
+            
+            String relativePath() {
+                return hash.substring(0, 2) + "/" + hash;
+            }
+        }
+        
+        static final class AssetIndex {
+            final List<AssetObject> objects;
+            final boolean virtual;
+            final boolean mapToResources;
+            
+            AssetIndex(List<AssetObject> objects, boolean virtual, boolean mapToResources) {
+                this.objects = objects;
+                this.virtual = virtual;
+                this.mapToResources = mapToResources;
+            }
+            
+            // Pre-1.7 versions read assets by name from a copy, not from the objects store
+            boolean needsNamedCopies() {
+                return virtual || mapToResources;
+            }
+        }
+        
+        // Installs the version's asset index if needed and parses it
+        static AssetIndex loadIndex(VersionProfile profile) throws Exception {
+            Path indexPath = Paths.get(ASSETS_DIR, "indexes", profile.assetIndexId + ".json");
+            if (!artifactStore.isInstalled(profile.assetIndex, indexPath)) {
+                artifactStore.install(profile.assetIndex, indexPath);
+            }
+            return parseIndex(new String(Files.readAllBytes(indexPath)));
+        }
+        
+        // Returns the objects that could not be downloaded
+        static List<DownloadScheduler.Job> sync(VersionProfile profile, AssetIndex index, DownloadScheduler scheduler,
+                                                Progress progress) throws Exception {
+            // Many names share one object; verify and fetch each hash once
+            Map<String, AssetObject> unique = new LinkedHashMap<>();
+            for (AssetObject obj : index.objects) unique.putIfAbsent(obj.hash, obj);
+            List<AssetObject> objects = new ArrayList<>(unique.values());
+            // Languages, icons and the like are queued before sounds, and music and records last:
+            // a game started early asks for those latest, if at all
+            objects.sort(Comparator.comparingInt(obj -> priority(obj.name)));
+            
+            Path objectsDir = Paths.get(ASSETS_DIR, "objects");
+            AtomicInteger verified = new AtomicInteger();
+            AtomicInteger missing = new AtomicInteger();
+            AtomicInteger downloaded = new AtomicInteger();
+            List<DownloadScheduler.Job> jobs = Collections.synchronizedList(new ArrayList<>());
+            List<Future<?>> downloads = Collections.synchronizedList(new ArrayList<>());
+            
+            List<Future<?>> checks = new ArrayList<>();
+            for (int from = 0; from < objects.size(); from += VERIFY_BATCH) {
+                List<AssetObject> batch = objects.subList(from, Math.min(objects.size(), from + VERIFY_BATCH));
+                checks.add(cpuPool.submit(() -> {
+                    for (AssetObject obj : batch) {
+                        Path file = objectsDir.resolve(obj.relativePath());
+                        if (!isValid(file, obj)) {
+                            missing.incrementAndGet();
+                            DownloadScheduler.Job job = new DownloadScheduler.Job(
+                                new Artifact(obj.relativePath(), ASSET_RESOURCES_URL + obj.relativePath(), obj.hash, obj.size),
+                                file.toString());
+                            jobs.add(job);
+                            downloads.add(scheduler.submit(job,
+                                j -> downloadFile(j.artifact.url, j.destPath, j.artifact.sha1, j.artifact.size),
+                                () -> progress.update(verified.get(), objects.size(), downloaded.incrementAndGet(), missing.get())));
+                        }
+                        progress.update(verified.incrementAndGet(), objects.size(), downloaded.get(), missing.get());
+                    }
+                }));
+            }
+            awaitAll(checks);
+            awaitAll(new ArrayList<>(downloads));
+            
+            List<DownloadScheduler.Job> failed = new ArrayList<>();
+            for (DownloadScheduler.Job job : jobs) {
+                if (job.error != null) failed.add(job);
+            }
+            
+            // Pre-1.7 versions read assets by name rather than by hash
+            if (index.needsNamedCopies()) {
+                Path root = index.mapToResources ? Paths.get(CTLAUNCHER_DIR, "resources")
+                                                 : Paths.get(ASSETS_DIR, "virtual", profile.assetIndexId);
+                for (AssetObject obj : index.objects) {
+                    Path src = objectsDir.resolve(obj.relativePath());
+                    Path dest = root.resolve(obj.name);
+                    if (Files.exists(src) && (!Files.exists(dest) || Files.size(dest) != obj.size)) {
+                        linkOrCopy(src, dest);
+                    }
+                }
+            }
+            return failed;
+        }
+        
+        private static int priority(String name) {
+            if (name.startsWith("minecraft/sounds/music/") || name.startsWith("minecraft/sounds/records/")) return 2;
+            return name.startsWith("minecraft/sounds/") ? 1 : 0;
+        }
+        
+        static boolean isValid(Path file, AssetObject obj) {
+            if (InstalledIndex.verified(file, obj.hash, obj.size)) return true;
+            try {
+                boolean valid = Files.exists(file) && Files.size(file) == obj.size && obj.hash.equals(sha1Of(file));
+                if (valid) InstalledIndex.record(file, obj.hash);
+                return valid;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+        
+        static AssetIndex parseIndex(String json) {
+            List<AssetObject> objects = new ArrayList<>();
+            boolean virtual = false;
+            boolean mapToResources = false;
+            
+            Json.Reader r = new Json.Reader(json);
+            r.beginObject();
+            while (r.hasNext()) {
+                String name = r.nextName();
+                if ("objects".equals(name)) {
+                    r.beginObject();
+                    while (r.hasNext()) {
+                        String assetName = r.nextName();
+                        String hash = null;
+                        long size = -1;
+                        r.beginObject();
+                        while (r.hasNext()) {
+                            String key = r.nextName();
+                            if ("hash".equals(key)) hash = r.nextString();
+                            else if ("size".equals(key)) size = r.nextLong();
+                            else r.skipValue();
+                        }
+                        r.endObject();
+                        if (hash != null && hash.length() > 2) {
+                            objects.add(new AssetObject(assetName, hash.toLowerCase(), size));
+                        }
+                    }
+                    r.endObject();
+                } else if ("virtual".equals(name)) {
+                    virtual = r.nextBoolean();
+                } else if ("map_to_resources".equals(name)) {
+                    mapToResources = r.nextBoolean();
+                } else {
+                    r.skipValue();
+                }
+            }
+            return new AssetIndex(objects, virtual, mapToResources);
+        }
+        
+        private static void awaitAll(List<Future<?>> futures) throws Exception {
+            try {
+                for (Future<?> f : futures) f.get();
+            } catch (ExecutionException e) {
+                throw (Exception) e.getCause();
+            } catch (InterruptedException e) {
+                for (Future<?> f : futures) f.cancel(true);
+                throw e;
+            }
+        }
+    }
+    
+    // ═══════════════════════════════════════════════════════════════════════════════
+    // VERIFY AND REPAIR
+    // ═══════════════════════════════════════════════════════════════════════════════
+    // Re-hashes everything the installed versions use (client jars, libraries, natives jars,
+    // asset indexes and objects) against their version JSONs, spread over every core. Files of
+    // MAPPED_MIN bytes and more are hashed through read-only mappings of up to MAP_WINDOW bytes
+    // rather than copied through a heap buffer; smaller ones are not worth a mapping each. A file
+    // shared by several versions is hashed once. Repair downloads only what failed, and first
+    // drops the store object behind a broken hard link, which is just as broken.
+    // LauncherCore.verify runs the same check for a single version, without repairing.
+    // Not covered: Java runtimes (checked when a version installs them) and derived files
+    // (extracted natives, legacy named asset copies), which install() rebuilds from the above.
+    static final class InstallCheck {
+        private static final long MAPPED_MIN = 256 * 1024;
+        private static final long MAP_WINDOW = 64L * 1024 * 1024;
+        
+        interface Progress {
+            void update(int checked, int total, String message);
+        }
+        
+        static final class Report {
+            final List<String> versions = new ArrayList<>();
+            final List<DownloadScheduler.Job> broken = new ArrayList<>();
+            final List<DownloadScheduler.Job> failed = new ArrayList<>();
+            int files;
+            long bytes;
+            long hashNanos;
+            int repaired;
+            
+            // Hashing throughput over the wall time of the hash passes
+            double gbPerSecond() {
+                return hashNanos == 0 ? 0 : bytes / (double) hashNanos;
+            }
+            
+            String summary() {
+                return String.format("%d files, %.2f GB in %.1f s (%.2f GB/s): %d broken, %d repaired, %d failed",
+                    files, bytes / 1e9, hashNanos / 1e9, gbPerSecond(), broken.size(), repaired, failed.size());
+            }
+        }
+        
+        private InstallCheck() {}
+        
+        // A version counts as installed once it has both its JSON and its client jar
+        static List<String> installedVersions() {
+            List<String> ids = new ArrayList<>();
+            File[] dirs = new File(VERSIONS_DIR).listFiles(File::isDirectory);
+            if (dirs == null) return ids;
+            for (File dir : dirs) {
+                String id = dir.getName();
+                if (new File(dir, id + ".json").isFile() && new File(dir, id + ".jar").isFile()) ids.add(id);
+            }
+            Collections.sort(ids);
+            return ids;
+        }
+        
+        // Every installed version; one whose JSON can't be read is skipped
+        static Report run(boolean repair, Progress progress) throws Exception {
+            Metrics.Span span = Metrics.span(repair ? "repair" : "verifyAll");
+            try {
+                Map<String, VersionProfile> profiles = new LinkedHashMap<>();
+                for (String version : installedVersions()) {
+                    try {
+                        profiles.put(version, VersionProfile.load(Paths.get(VERSIONS_DIR, version, version + ".json")));
+                    } catch (Exception e) {
+                        System.err.println("Skipping " + version + " - unreadable version JSON: " + e.getMessage());
+                    }
+                }
+                return run(profiles, repair, progress);
+            } finally {
+                span.close();
+            }
+        }
+        
+        static Report run(Map<String, VersionProfile> profiles, boolean repair, Progress progress) throws Exception {
+            Report report = new Report();
+            // Jobs double as (artifact, path) pairs, keyed by path so shared files are hashed once
+            Map<Path, DownloadScheduler.Job> files = new LinkedHashMap<>();
+            Map<Path, DownloadScheduler.Job> indexes = new LinkedHashMap<>();
+            for (Map.Entry<String, VersionProfile> e : profiles.entrySet()) {
+                String version = e.getKey();
+                VersionProfile profile = e.getValue();
+                report.versions.add(version);
+                if (profile.client != null) add(files, profile.client, Paths.get(VERSIONS_DIR, version, version + ".jar"));
+                for (Artifact lib : LauncherCore.librariesToDownload(profile)) {
+                    add(files, lib, Paths.get(LIBRARIES_DIR, lib.path));
+                }
+                if (profile.assetIndex != null) {
+                    add(indexes, profile.assetIndex, Paths.get(ASSETS_DIR, "indexes", profile.assetIndexId + ".json"));
+                }
+            }
+            
+            // Indexes go first: the objects to check come out of them
+            List<DownloadScheduler.Job> pass = new ArrayList<>(files.values());
+            pass.addAll(indexes.values());
+            List<DownloadScheduler.Job> broken = hashAll(pass, report, progress, "Checking game files");
+            List<DownloadScheduler.Job> toRepair = new ArrayList<>();
+            for (DownloadScheduler.Job job : broken) {
+                if (!indexes.containsKey(Paths.get(job.destPath))) toRepair.add(job);
+            }
+            
+            Path objectsDir = Paths.get(ASSETS_DIR, "objects");
+            Map<Path, DownloadScheduler.Job> objects = new LinkedHashMap<>();
+            for (DownloadScheduler.Job index : indexes.values()) {
+                Path indexPath = Paths.get(index.destPath);
+                if (broken.contains(index)) {
+                    if (!repair || !repairOne(index, report)) continue;
+                }
+                for (AssetSync.AssetObject obj : AssetSync.parseIndex(
+                        new String(Files.readAllBytes(indexPath), StandardCharsets.UTF_8)).objects) {
+                    add(objects, new Artifact(obj.relativePath(), ASSET_RESOURCES_URL + obj.relativePath(), obj.hash, obj.size),
+                        objectsDir.resolve(obj.relativePath()));
+                }
+            }
+            toRepair.addAll(hashAll(new ArrayList<>(objects.values()), report, progress, "Checking assets"));
+            
+            if (repair && !toRepair.isEmpty()) {
+                for (DownloadScheduler.Job job : toRepair) discard(job);
+                int total = toRepair.size();
+                progress.update(0, total, "Repairing " + total + " files");
+                List<DownloadScheduler.Job> failed = downloadScheduler.runAll(toRepair, job -> {
+                    Path dest = Paths.get(job.destPath);
+                    if (dest.startsWith(objectsDir)) {
+                        downloadFile(job.artifact.url, job.destPath, job.artifact.sha1, job.artifact.size);
+                    } else {
+                        artifactStore.install(job.artifact, dest);
+                    }
+                }, done -> progress.update(done, total, "Repairing (" + done + "/" + total + ")"));
+                for (DownloadScheduler.Job job : failed) {
+                    System.err.println("Failed to repair: " + job.destPath + " - " + job.error.getMessage());
+                }
+                report.failed.addAll(failed);
+                report.repaired += total - failed.size();
+            }
+            
+            InstallStamp.flush();
+            InstalledIndex.save();
+            Metrics.count("verify.bytes", report.bytes);
+            Metrics.count("verify.broken", report.broken.size());
+            return report;
+        }
+        
+        private static void add(Map<Path, DownloadScheduler.Job> jobs, Artifact a, Path file) {
+            Path key = file.toAbsolutePath().normalize();
+            jobs.putIfAbsent(key, new DownloadScheduler.Job(a, key.toString()));
+        }
+        
+        // Hashes every file on the CPU pool; small batches so a few large jars still spread out
+        private static List<DownloadScheduler.Job> hashAll(List<DownloadScheduler.Job> jobs, Report report,
+                                                           Progress progress, String message) throws Exception {
+            int total = jobs.size();
+            int batchSize = Math.max(1, Math.min(AssetSync.VERIFY_BATCH,
+                total / (4 * Runtime.getRuntime().availableProcessors())));
+            AtomicInteger checked = new AtomicInteger();
+            AtomicLong bytes = new AtomicLong();
+            List<DownloadScheduler.Job> broken = Collections.synchronizedList(new ArrayList<>());
+            List<Future<?>> futures = new ArrayList<>();
+            long start = System.nanoTime();
+            for (int from = 0; from < total; from += batchSize) {
+                List<DownloadScheduler.Job> batch = jobs.subList(from, Math.min(total, from + batchSize));
+                futures.add(cpuPool.submit(() -> {
+                    for (DownloadScheduler.Job job : batch) {
+                        if (!intact(job.artifact, Paths.get(job.destPath), bytes)) {
+                            broken.add(job);
+                            System.err.println("Missing or corrupt: " + job.destPath);
+                        }
+                        int n = checked.incrementAndGet();
+                        progress.update(n, total, message + " (" + n + "/" + total + ")");
+                    }
+                }));
+            }
+            AssetSync.awaitAll(futures);
+            report.hashNanos += System.nanoTime() - start;
+            report.bytes += bytes.get();
+            report.files += total;
+            // Keep the report in check order rather than completion order
+            List<DownloadScheduler.Job> ordered = new ArrayList<>(jobs);
+            ordered.retainAll(new HashSet<>(broken));
+            report.broken.addAll(ordered);
+            return ordered;
+        }
+        
+        // Full content check that never trusts a store link or the installed index, and corrects
+        // the index either way; adds the bytes it hashed to bytes
+        static boolean intact(Artifact a, Path file, AtomicLong bytes) {
+            try {
+                long size = Files.size(file);
+                boolean ok = (a.size < 0 || size == a.size);
+                if (ok && a.sha1 != null) {
+                    ok = a.sha1.equals(hash(file, size));
+                    bytes.addAndGet(size);
+                }
+                if (ok) InstalledIndex.record(file, a.sha1);
+                else InstalledIndex.forget(file);
+                return ok;
+            } catch (IOException e) {
+                InstalledIndex.forget(file);
+                return false;
+            }
+        }
+        
+        static String hash(Path file, long size) throws IOException {
+            if (size < MAPPED_MIN) return sha1Of(file);
+            Metrics.Span span = Metrics.span("sha1");
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                MessageDigest md = MessageDigest.getInstance("SHA-1");
+                for (long pos = 0; pos < size; pos += MAP_WINDOW) {
+                    md.update(channel.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(MAP_WINDOW, size - pos)));
+                }
+                Metrics.count("hash.bytes", size);
+                return toHex(md.digest());
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            } finally {
+                span.close();
+            }
+        }
+        
+        // A corrupt hard link means a corrupt store object; drop both so the repair re-downloads
+        private static void discard(DownloadScheduler.Job job) throws IOException {
+            Path target = Paths.get(job.destPath);
+            if (job.artifact.sha1 != null) {
+                Path obj = artifactStore.objectPath(job.artifact.sha1);
+                boolean linked = Files.exists(obj) && Files.exists(target) && Files.isSameFile(obj, target);
+                if (linked || (Files.exists(obj) && !job.artifact.sha1.equals(sha1Of(obj)))) {
+                    Files.deleteIfExists(obj);
+                    InstalledIndex.forget(obj);
+                }
+            }
+            Files.deleteIfExists(target);
+            InstalledIndex.forget(target);
+        }
+        
+        private static boolean repairOne(DownloadScheduler.Job job, Report report) throws Exception {
+            discard(job);
+            try {
+                artifactStore.install(job.artifact, Paths.get(job.destPath));
+                report.repaired++;
+                return true;
+            } catch (Exception e) {
+                System.err.println("Failed to repair: " + job.destPath + " - " + e.getMessage());
+                job.error = e;
+                report.failed.add(job);
+                return false;
+            }
+        }
+    }
+    
+    // ═══════════════════════════════════════════════════════════════════════════════
+    // VERSION PROFILE
+    // ═══════════════════════════════════════════════════════════════════════════════
+    // Immutable view of a version JSON, built once and shared by download, classpath and
+    // argument building. Profiles are cached in memory and as a compact binary
+    // <version>.profile next to the JSON, keyed by the JSON's size and mtime, so a repeat
+    // launch never parses the JSON again.
+    static final class VersionProfile {
+        private static final int FORMAT = 1;
+        private static final Map<Path, VersionProfile> cache = new ConcurrentHashMap<>();
+        
+        final String id;
+        final String type;
+        final String mainClass;
+        final Artifact client;
+        final String assetIndexId;
+        final Artifact assetIndex;
+        final String javaComponent;
+        final int javaMajorVersion;
+        final List<Library> libraries;
+        final List<Argument> jvmArguments;
+        final List<Argument> gameArguments;
+        final String legacyArguments;
+        private final long stamp;
+        
+        static final class Library {
+            final String name;
+            final Artifact artifact;
+            final Map<String, String> natives;
+            final Map<String, Artifact> classifiers;
+            final List<Rule> rules;
+            final List<String> extractExclude;
+            
+            Library(String name, Artifact artifact, Map<String, String> natives, Map<String, Artifact> classifiers,
+                    List<Rule> rules, List<String> extractExclude) {
+                this.name = name;
+                this.artifact = artifact;
+                this.natives = Collections.unmodifiableMap(natives);
+                this.classifiers = Collections.unmodifiableMap(classifiers);
+                this.rules = Collections.unmodifiableList(rules);
+                this.extractExclude = Collections.unmodifiableList(extractExclude);
+            }
+        }
+        
+        static final class Rule {
+            final boolean allow;
+            final String osName;
+            final String osArch;
+            final String osVersion;
+            final Map<String, Boolean> features;
+            
+            Rule(boolean allow, String osName, String osArch, String osVersion, Map<String, Boolean> features) {
+                this.allow = allow;
+                this.osName = osName;
+                this.osArch = osArch;
+                this.osVersion = osVersion;
+                this.features = Collections.unmodifiableMap(features);
+            }
+        }
+        
+        static final class Argument {
+            final List<String> values;
+            final List<Rule> rules;
+            
+            Argument(List<String> values, List<Rule> rules) {
+                this.values = Collections.unmodifiableList(values);
+                this.rules = Collections.unmodifiableList(rules);
+            }
+        }
+        
+        private VersionProfile(String id, String type, String mainClass, Artifact client, String assetIndexId,
+                               Artifact assetIndex, String javaComponent, int javaMajorVersion, List<Library> libraries,
+                               List<Argument> jvmArguments, List<Argument> gameArguments, String legacyArguments,
+                               long stamp) {
+            this.id = id;
+            this.type = type;
+            this.mainClass = mainClass;
+            this.client = client;
+            this.assetIndexId = assetIndexId;
+            this.assetIndex = assetIndex;
+            this.javaComponent = javaComponent;
+            this.javaMajorVersion = javaMajorVersion;
+            this.libraries = Collections.unmodifiableList(libraries);
+            this.jvmArguments = Collections.unmodifiableList(jvmArguments);
+            this.gameArguments = Collections.unmodifiableList(gameArguments);
+            this.legacyArguments = legacyArguments;
+            this.stamp = stamp;
+        }
+        
+        // Memory cache, then the binary cache, then a full JSON parse (which refreshes both)
+        static VersionProfile load(Path jsonPath) throws IOException {
+            long stamp = stampOf(jsonPath);
+            VersionProfile cached = cache.get(jsonPath);
+            if (cached != null && cached.stamp == stamp) return cached;
+            
+            Path binPath = binaryPath(jsonPath);
+            VersionProfile profile = readBinary(binPath, stamp);
+            if (profile == null) {
+                profile = fromJson(Json.parseObject(new String(Files.readAllBytes(jsonPath))), stamp);
+                writeBinary(binPath, profile);
+            }
+            cache.put(jsonPath, profile);
+            return profile;
+        }
+        
+        private static long stampOf(Path jsonPath) throws IOException {
+            return Files.size(jsonPath) * 31 + Files.getLastModifiedTime(jsonPath).toMillis();
+        }
+        
+        private static Path binaryPath(Path jsonPath) {
+            String name = jsonPath.getFileName().toString();
+            return jsonPath.resolveSibling(name.substring(0, name.length() - ".json".length()) + ".profile");
+        }
+        
+        static VersionProfile fromJson(Map<String, Object> json, long stamp) {
+            List<Library> libraries = new ArrayList<>();
+            for (Object lib : Json.arr(json, "libraries")) {
+                Map<String, Object> downloads = Json.obj(lib, "downloads");
+                
+                Map<String, String> natives = new LinkedHashMap<>();
+                Map<String, Object> nativesJson = Json.obj(lib, "natives");
+                if (nativesJson != null) {
+                    for (String os : nativesJson.keySet()) natives.put(os, Json.str(nativesJson, os));
+                }
+                
+                Map<String, Artifact> classifiers = new LinkedHashMap<>();
+                Map<String, Object> classifiersJson = Json.obj(downloads, "classifiers");
+                if (classifiersJson != null) {
+                    for (String key : classifiersJson.keySet()) {
+                        Artifact a = Artifact.fromJson(Json.obj(classifiersJson, key), null);
+                        if (a != null) classifiers.put(key, a);
+                    }
+                }
+                
+                List<String> exclude = new ArrayList<>();
+                for (Object e : Json.arr(Json.obj(lib, "extract"), "exclude")) {
+                    if (e instanceof String) exclude.add((String) e);
+                }
+                
+                libraries.add(new Library(Json.str(lib, "name"), Artifact.fromJson(Json.obj(downloads, "artifact"), null),
+                    natives, classifiers, parseRules(Json.arr(lib, "rules")), exclude));
+            }
+            
+            Map<String, Object> arguments = Json.obj(json, "arguments");
+            Map<String, Object> javaVersion = Json.obj(json, "javaVersion");
+            Map<String, Object> assetIndex = Json.obj(json, "assetIndex");
+            String id = Json.str(json, "id");
+            
+            return new VersionProfile(id, Json.str(json, "type"), Json.str(json, "mainClass"),
+                Artifact.fromJson(Json.path(json, "downloads", "client"), id + ".jar"),
+                Json.str(assetIndex, "id"),
+                Artifact.fromJson(assetIndex, "indexes/" + Json.str(assetIndex, "id") + ".json"),
+                Json.str(javaVersion, "component"), (int) Json.num(javaVersion, "majorVersion", 0),
+                libraries, parseArguments(Json.arr(arguments, "jvm")), parseArguments(Json.arr(arguments, "game")),
+                Json.str(json, "minecraftArguments"), stamp);
+        }
+        
+        private static List<Rule> parseRules(List<Object> rulesJson) {
+            List<Rule> rules = new ArrayList<>();
+            for (Object r : rulesJson) {
+                Map<String, Object> os = Json.obj(r, "os");
+                Map<String, Boolean> features = new LinkedHashMap<>();
+                Map<String, Object> featuresJson = Json.obj(r, "features");
+                if (featuresJson != null) {
+                    for (String key : featuresJson.keySet()) features.put(key, Json.bool(featuresJson, key, false));
+                }
+                rules.add(new Rule(!"disallow".equals(Json.str(r, "action")),
+                    Json.str(os, "name"), Json.str(os, "arch"), Json.str(os, "version"), features));
+            }
+            return rules;
+        }
+        
+        // Entries are plain strings or {rules, value} objects whose value is a string or list
+        private static List<Argument> parseArguments(List<Object> argsJson) {
+            List<Argument> args = new ArrayList<>();
+            for (Object entry : argsJson) {
+                if (entry instanceof String) {
+                    args.add(new Argument(Collections.singletonList((String) entry), Collections.emptyList()));
+                } else if (entry instanceof Map) {
+                    List<String> values = new ArrayList<>();
+                    Object value = ((Map<?, ?>) entry).get("value");
+                    if (value instanceof String) {
+                        values.add((String) value);
+                    } else if (value instanceof List) {
+                        for (Object v : (List<?>) value) {
+                            if (v instanceof String) values.add((String) v);
+                        }
+                    }
+                    args.add(new Argument(values, parseRules(Json.arr(entry, "rules"))));
+                }
+            }
+            return args;
+        }
+        
+        // ── Binary form ──
+        
+        private static VersionProfile readBinary(Path path, long stamp) {
+            if (!Files.exists(path)) return null;
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+                if (in.readInt() != FORMAT || in.readLong() != stamp) return null;
+                String id = readStr(in);
+                String type = readStr(in);
+                String mainClass = readStr(in);
+                Artifact client = readArtifact(in);
+                String assetIndexId = readStr(in);
+                Artifact assetIndex = readArtifact(in);
+                String javaComponent = readStr(in);
+                int javaMajor = in.readInt();
+                
+                int libCount = in.readInt();
+                List<Library> libraries = new ArrayList<>(libCount);
+                for (int i = 0; i < libCount; i++) {
+                    String name = readStr(in);
+                    Artifact artifact = readArtifact(in);
+                    Map<String, String> natives = new LinkedHashMap<>();
+                    for (int n = in.readInt(); n > 0; n--) natives.put(readStr(in), readStr(in));
+                    Map<String, Artifact> classifiers = new LinkedHashMap<>();
+                    for (int n = in.readInt(); n > 0; n--) classifiers.put(readStr(in), readArtifact(in));
+                    List<Rule> rules = readRules(in);
+                    List<String> exclude = readStrings(in);
+                    libraries.add(new Library(name, artifact, natives, classifiers, rules, exclude));
+                }
+                
+                List<Argument> jvm = readArguments(in);
+                List<Argument> game = readArguments(in);
+                String legacy = readStr(in);
+                return new VersionProfile(id, type, mainClass, client, assetIndexId, assetIndex, javaComponent,
+                    javaMajor, libraries, jvm, game, legacy, stamp);
+            } catch (IOException e) {
+                // Corrupt or from an older format; fall back to the JSON
+                return null;
+            }
+        }
+        
+        private static void writeBinary(Path path, VersionProfile p) {
+            try {
+                Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                    out.writeInt(FORMAT);
+                    out.writeLong(p.stamp);
+                    writeStr(out, p.id);
+                    writeStr(out, p.type);
+                    writeStr(out, p.mainClass);
+                    writeArtifact(out, p.client);
+                    writeStr(out, p.assetIndexId);
+                    writeArtifact(out, p.assetIndex);
+                    writeStr(out, p.javaComponent);
+                    out.writeInt(p.javaMajorVersion);
+                    
+                    out.writeInt(p.libraries.size());
+                    for (Library lib : p.libraries) {
+                        writeStr(out, lib.name);
+                        writeArtifact(out, lib.artifact);
+                        out.writeInt(lib.natives.size());
+                        for (Map.Entry<String, String> e : lib.natives.entrySet()) {
+                            writeStr(out, e.getKey());
+                            writeStr(out, e.getValue());
+                        }
+                        out.writeInt(lib.classifiers.size());
+                        for (Map.Entry<String, Artifact> e : lib.classifiers.entrySet()) {
+                            writeStr(out, e.getKey());
+                            writeArtifact(out, e.getValue());
+                        }
+                        writeRules(out, lib.rules);
+                        writeStrings(out, lib.extractExclude);
+                    }
+                    
+                    writeArguments(out, p.jvmArguments);
+                    writeArguments(out, p.gameArguments);
+                    writeStr(out, p.legacyArguments);
+                }
+                moveAtomically(tmp, path);
+            } catch (IOException e) {
+                System.err.println("Failed to cache version profile: " + e.getMessage());
+            }
+        }
+        
+        private static void writeStr(DataOutputStream out, String s) throws IOException {
+            out.writeBoolean(s != null);
+            if (s != null) out.writeUTF(s);
+        }
+        
+        private static String readStr(DataInputStream in) throws IOException {
+            return in.readBoolean() ? in.readUTF() : null;
+        }
+        
+        private static void writeStrings(DataOutputStream out, List<String> list) throws IOException {
+            out.writeInt(list.size());
+            for (String s : list) writeStr(out, s);
+        }
+        
+        private static List<String> readStrings(DataInputStream in) throws IOException {
+            int n = in.readInt();
+            List<String> list = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) list.add(readStr(in));
+            return list;
+        }
+        
+        private static void writeArtifact(DataOutputStream out, Artifact a) throws IOException {
+            out.writeBoolean(a != null);
+            if (a == null) return;
+            writeStr(out, a.path);
+            writeStr(out, a.url);
+            writeStr(out, a.sha1);
+            out.writeLong(a.size);
+        }
+        
+        private static Artifact readArtifact(DataInputStream in) throws IOException {
+            if (!in.readBoolean()) return null;
+            return new Artifact(readStr(in), readStr(in), readStr(in), in.readLong());
+        }
+        
+        private static void writeRules(DataOutputStream out, List<Rule> rules) throws IOException {
+            out.writeInt(rules.size());
+            for (Rule r : rules) {
+                out.writeBoolean(r.allow);
+                writeStr(out, r.osName);
+                writeStr(out, r.osArch);
+                writeStr(out, r.osVersion);
+                out.writeInt(r.features.size());
+                for (Map.Entry<String, Boolean> e : r.features.entrySet()) {
+                    writeStr(out, e.getKey());
+                    out.writeBoolean(e.getValue());
+                }
+            }
+        }
+        
+        private static List<Rule> readRules(DataInputStream in) throws IOException {
+            int n = in.readInt();
+            List<Rule> rules = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                boolean allow = in.readBoolean();
+                String osName = readStr(in);
+                String osArch = readStr(in);
+                String osVersion = readStr(in);
+                Map<String, Boolean> features = new LinkedHashMap<>();
+                for (int f = in.readInt(); f > 0; f--) features.put(readStr(in), in.readBoolean());
+                rules.add(new Rule(allow, osName, osArch, osVersion, features));
+            }
+            return rules;
+        }
+        
+        private static void writeArguments(DataOutputStream out, List<Argument> args) throws IOException {
+            out.writeInt(args.size());
+            for (Argument a : args) {
+                writeStrings(out, a.values);
+                writeRules(out, a.rules);
+            }
+        }
+        
+        private static List<Argument> readArguments(DataInputStream in) throws IOException {
+            int n = in.readInt();
+            List<Argument> args = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                List<String> values = readStrings(in);
+                args.add(new Argument(values, readRules(in)));
+            }
+            return args;
+        }
+    }
+    
+    // ═══════════════════════════════════════════════════════════════════════════════
+    // LIBRARY RULES
+    // ═══════════════════════════════════════════════════════════════════════════════
+    // Evaluates the "rules" arrays on libraries and arguments the way the official launcher does:
+    // no rules means allowed; otherwise the last matching rule wins and nothing matching means
+    // disallowed. Feature flags (is_demo_user, has_custom_resolution, ...) default to false and can
+    // be switched on with feature.<name>=true in launcher.properties.
+    static final class Rules {
+        static final Environment CURRENT = Environment.detect();
+        
+        static final class Environment {
+            final String osName;
+            final String osArch;
+            final String osVersion;
+            final Map<String, Boolean> features;
+            
+            Environment(String osName, String osArch, String osVersion, Map<String, Boolean> features) {
+                this.osName = osName;
+                this.osArch = osArch;
+                this.osVersion = osVersion;
+                this.features = Collections.unmodifiableMap(features);
+            }
+            
+            static Environment detect() {
+                String os = System.getProperty("os.name").toLowerCase();
+                String name = os.contains("win") ? "windows" : os.contains("mac") ? "osx" : "linux";
+                Map<String, Boolean> features = new HashMap<>();
+                for (String key : LauncherConfig.props.stringPropertyNames()) {
+                    if (key.startsWith("feature.")) {
+                        features.put(key.substring(8), LauncherConfig.getBool(key, false));
+                    }
+                }
+                return new Environment(name, normalizeArch(System.getProperty("os.arch")),
+                    System.getProperty("os.version"), features);
+            }
+            
+            boolean feature(String name) {
+                return features.getOrDefault(name, false);
+            }
+        }
+        
+        private Rules() {}
+        
+        // Maps JVM and Maven classifier spellings onto the names used in version JSON
+        static String normalizeArch(String arch) {
+            arch = arch.toLowerCase();
+            switch (arch) {
+                case "x86": case "i386": case "i486": case "i586": case "i686":
+                    return "x86";
+                case "amd64": case "x86_64": case "x64":
+                    return "x86_64";
+                case "aarch64": case "aarch_64": case "arm64":
+                    return "arm64";
+                default:
+                    return arch;
+            }
+        }
+        
+        static boolean allows(List<VersionProfile.Rule> rules, Environment env) {
+            if (rules.isEmpty()) return true;
+            boolean allowed = false;
+            for (VersionProfile.Rule rule : rules) {
+                if (matches(rule, env)) allowed = rule.allow;
+            }
+            return allowed;
+        }
+        
+        static boolean matches(VersionProfile.Rule rule, Environment env) {
+            if (rule.osName != null && !rule.osName.equals(env.osName)) return false;
+            if (rule.osArch != null && !normalizeArch(rule.osArch).equals(env.osArch)) return false;
+            if (rule.osVersion != null) {
+                try {
+                    if (!Pattern.compile(rule.osVersion).matcher(env.osVersion).find()) return false;
+                } catch (PatternSyntaxException e) {
+                    return false;
+                }
+            }
+            for (Map.Entry<String, Boolean> f : rule.features.entrySet()) {
+                if (env.feature(f.getKey()) != f.getValue()) return false;
+            }
+            return true;
+        }
+        
+        // Null when the library applies here, otherwise why it is skipped
+        static String skipReason(VersionProfile.Library lib, Environment env) {
+            if (!allows(lib.rules, env)) return "rules";
+            // 1.19+ lists per-platform natives as separate libraries (name:version:natives-linux-arm64);
+            // their rules only name the OS, so the arch comes from the classifier
+            String[] parts = lib.name != null ? lib.name.split(":") : new String[0];
+            if (parts.length >= 4 && parts[3].startsWith("natives-")) {
+                String[] classifier = parts[3].split("-", 3);
+                if (classifier.length == 3 && !normalizeArch(classifier[2]).equals(env.osArch)) return "arch " + classifier[2];
+            }
+            return null;
+        }
+        
+        static boolean includes(VersionProfile.Library lib, Environment env) {
+            return skipReason(lib, env) == null;
+        }
+        
+        // Lists every library left out on this machine and the bytes that saved
+        static void writeReport(VersionProfile profile, Environment env, Path report) {
+            StringBuilder sb = new StringBuilder();
+            int skipped = 0;
+            long bytes = 0;
+            for (VersionProfile.Library lib : profile.libraries) {
+                String reason = skipReason(lib, env);
+                if (reason == null) continue;
+                skipped++;
+                long size = 0;
+                if (lib.artifact != null) size += Math.max(0, lib.artifact.size);
+                for (Artifact a : lib.classifiers.values()) size += Math.max(0, a.size);
+                bytes += size;
+                sb.append(lib.name).append('\t').append(reason).append('\t').append(size).append('\n');
+            }
+            String header = "# " + profile.id + " on " + env.osName + "/" + env.osArch + ": skipped " + skipped
+                + " of " + profile.libraries.size() + " libraries (" + bytes + " bytes)\n";
+            try {
+                Files.write(report, (header + sb).getBytes(StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                System.err.println("Could not write " + report + ": " + e.getMessage());
+            }
+        }
+    }
+    
+    // ═══════════════════════════════════════════════════════════════════════════════
+    // JSON
+    // ═══════════════════════════════════════════════════════════════════════════════
+    // Single-pass pull parser. Reader walks the document once without copying it; strings are
+    // only materialized for values the caller asks for, and skipValue() allocates nothing.
+    // parse() builds a plain tree (Map/List/String/Long/Double/Boolean/null) for documents that
+    // are walked more than once, read through the typed accessors below.
+    static final class Json {
+        private Json() {}
+        
+        static Object parse(String json) {
+            Reader r = new Reader(json);
+            Object value = r.readValue();
+            if (r.peek() != Reader.END) throw r.error("Trailing data");
+            return value;
+        }
+        
+        @SuppressWarnings("unchecked")
+        static Map<String, Object> parseObject(String json) {
+            Object value = parse(json);
+            if (!(value instanceof Map)) throw new IllegalArgumentException("Expected a JSON object");
+            return (Map<String, Object>) value;
+        }
+        
+        @SuppressWarnings("unchecked")
+        static Map<String, Object> obj(Object node, String key) {
+            Object v = node instanceof Map ? ((Map<?, ?>) node).get(key) : null;
+            return v instanceof Map ? (Map<String, Object>) v : null;
+        }
+        
+        @SuppressWarnings("unchecked")
+        static List<Object> arr(Object node, String key) {
+            Object v = node instanceof Map ? ((Map<?, ?>) node).get(key) : null;
+            return v instanceof List ? (List<Object>) v : Collections.emptyList();
+        }
+        
+        static String str(Object node, String key) {
+            Object v = node instanceof Map ? ((Map<?, ?>) node).get(key) : null;
+            return v instanceof String ? (String) v : null;
+        }
+        
+        static long num(Object node, String key, long def) {
+            Object v = node instanceof Map ? ((Map<?, ?>) node).get(key) : null;
+            return v instanceof Number ? ((Number) v).longValue() : def;
+        }
+        
+        static boolean bool(Object node, String key, boolean def) {
+            Object v = node instanceof Map ? ((Map<?, ?>) node).get(key) : null;
+            return v instanceof Boolean ? (Boolean) v : def;
+        }
+        
+        // String literal with JSON escaping, for the CLI's output
+        static String quote(String s) {
+            StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                switch (c) {
+                    case '"': sb.append("\\\""); break;
+                    case '\\': sb.append("\\\\"); break;
+                    case '\n': sb.append("\\n"); break;
+                    case '\r': sb.append("\\r"); break;
+                    case '\t': sb.append("\\t"); break;
+                    default:
+                        if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+                        else sb.append(c);
+                }
+            }
+            return sb.append('"').toString();
+        }
+        
+        // Follows nested objects, e.g. path(json, "downloads", "client")
+        @SuppressWarnings("unchecked")
+        static Map<String, Object> path(Object node, String... keys) {
+            Object current = node;
+            for (String key : keys) {
+                current = obj(current, key);
+                if (current == null) return null;
+            }
+            return current instanceof Map ? (Map<String, Object>) current : null;
+        }
+        
+        static final class Reader {
+            static final int BEGIN_OBJECT = 1, END_OBJECT = 2, BEGIN_ARRAY = 3, END_ARRAY = 4,
+                             STRING = 5, NUMBER = 6, BOOLEAN = 7, NULL = 8, END = 9;
+            
+            private final String s;
+            private final int len;
+            private int pos;
+            
+            Reader(String s) {
+                this.s = s;
+                this.len = s.length();
+            }
+            
+            // Separators are consumed leniently: commas and colons are skipped like whitespace
+            private void skipSeparators() {
+                while (pos < len) {
+                    char c = s.charAt(pos);
+                    if (c == ' ' || c == '\n' || c == '\r' || c == '\t' || c == ',' || c == ':') pos++;
+                    else break;
+                }
+            }
+            
+            int peek() {
+                skipSeparators();
+                if (pos >= len) return END;
+                char c = s.charAt(pos);
+                switch (c) {
+                    case '{': return BEGIN_OBJECT;
+                    case '}': return END_OBJECT;
+                    case '[': return BEGIN_ARRAY;
+                    case ']': return END_ARRAY;
+                    case '"': return STRING;
+                    case 't': case 'f': return BOOLEAN;
+                    case 'n': return NULL;
+                    default:
+                        if (c == '-' || (c >= '0' && c <= '9')) return NUMBER;
+                        throw error("Unexpected character '" + c + "'");
+                }
+            }
+            
+            boolean hasNext() {
+                int t = peek();
+                return t != END_OBJECT && t != END_ARRAY && t != END;
+            }
+            
+            void beginObject() { expect('{'); }
+            void endObject() { expect('}'); }
+            void beginArray() { expect('['); }
+            void endArray() { expect(']'); }
+            
+            String nextName() {
+                return nextString();
+            }
+            
+            String nextString() {
+                skipSeparators();
+                if (pos >= len || s.charAt(pos) != '"') throw error("Expected string");
+                int start = ++pos;
+                while (pos < len) {
+                    char c = s.charAt(pos);
+                    if (c == '"') return s.substring(start, pos++);
+                    if (c == '\\') return readEscaped(start);
+                    pos++;
+                }
+                throw error("Unterminated string");
+            }
+            
+            private String readEscaped(int start) {
+                StringBuilder sb = new StringBuilder(pos - start + 16).append(s, start, pos);
+                while (pos < len) {
+                    char c = s.charAt(pos++);
+                    if (c == '"') return sb.toString();
+                    if (c != '\\') {
+                        sb.append(c);
+                        continue;
+                    }
+                    if (pos >= len) break;
+                    char e = s.charAt(pos++);
+                    switch (e) {
+                        case 'n': sb.append('\n'); break;
+                        case 't': sb.append('\t'); break;
+                        case 'r': sb.append('\r'); break;
+                        case 'b': sb.append('\b'); break;
+                        case 'f': sb.append('\f'); break;
+                        case 'u':
+                            if (pos + 4 > len) throw error("Bad unicode escape");
+                            sb.append((char) Integer.parseInt(s.substring(pos, pos + 4), 16));
+                            pos += 4;
+                            break;
+                        default: sb.append(e);
+                    }
+                }
+                throw error("Unterminated string");
+            }
+            
+            Number nextNumber() {
+                skipSeparators();
+                int start = pos;
+                boolean integral = true;
+                while (pos < len) {
+                    char c = s.charAt(pos);
+                    if ((c >= '0' && c <= '9') || c == '-' || c == '+') pos++;
+                    else if (c == '.' || c == 'e' || c == 'E') { integral = false; pos++; }
+                    else break;
+                }
+                if (start == pos) throw error("Expected number");
+                String text = s.substring(start, pos);
+                if (integral && pos - start < 19) return Long.parseLong(text);
+                return Double.parseDouble(text);
+            }
+            
+            long nextLong() {
+                return nextNumber().longValue();
+            }
+            
+            boolean nextBoolean() {
+                skipSeparators();
+                if (s.startsWith("true", pos)) { pos += 4; return true; }
+                if (s.startsWith("false", pos)) { pos += 5; return false; }
+                throw error("Expected boolean");
+            }
+            
+            void nextNull() {
+                skipSeparators();
+                if (!s.startsWith("null", pos)) throw error("Expected null");
+                pos += 4;
+            }
+            
+            // Skips the next value (including whole objects/arrays) without allocating
+            void skipValue() {
+                int depth = 0;
+                do {
+                    switch (peek()) {
+                        case BEGIN_OBJECT: case BEGIN_ARRAY: pos++; depth++; break;
+                        case END_OBJECT: case END_ARRAY: pos++; depth--; break;
+                        case STRING: skipString(); break;
+                        case NUMBER: case BOOLEAN: case NULL: skipLiteral(); break;
+                        default: throw error("Unexpected end of document");
+                    }
+                } while (depth > 0);
+            }
+            
+            private void skipString() {
+                pos++;
+                while (pos < len) {
+                    char c = s.charAt(pos++);
+                    if (c == '\\') pos++;
+                    else if (c == '"') return;
+                }
+                throw error("Unterminated string");
+            }
+            
+            private void skipLiteral() {
+                while (pos < len && ",:}] \t\r\n".indexOf(s.charAt(pos)) == -1) pos++;
+            }
+            
+            Object readValue() {
+                switch (peek()) {
+                    case BEGIN_OBJECT: {
+                        Map<String, Object> map = new LinkedHashMap<>();
+                        beginObject();
+                        while (hasNext()) {
+                            String name = nextName();
+                            map.put(name, readValue());
+                        }
+                        endObject();
+                        return map;
+                    }
+                    case BEGIN_ARRAY: {
+                        List<Object> list = new ArrayList<>();
+                        beginArray();
+                        while (hasNext()) {
+                            list.add(readValue());
+                        }
+                        endArray();
+                        return list;
+                    }
+                    case STRING: return nextString();
+                    case NUMBER: return nextNumber();
+                    case BOOLEAN: return nextBoolean();
+                    case NULL: nextNull(); return null;
+                    default: throw error("Unexpected token");
+                }
+            }
+            
+            private void expect(char c) {
+                skipSeparators();
+                if (pos >= len || s.charAt(pos) != c) throw error("Expected '" + c + "'");
+                pos++;
+            }
+            
+            IllegalArgumentException error(String message) {
+                return new IllegalArgumentException(message + " at offset " + pos);
+            }
+        }
+    }
+    
+    // ═══════════════════════════════════════════════════════════════════════════════
+    // CONFIGURATION
+    // ═══════════════════════════════════════════════════════════════════════════════
+    // Settings come from ~/.ctlauncher/launcher.properties; -Dctlauncher.<key> overrides the file.
+    static class LauncherConfig {
+        // Not CONFIG_FILE: touching CTLauncher's statics from here would run its initializer,
+        // which reads settings itself, before props is assigned (e.g. when the CLI or a test
+        // uses HttpTransport first)
+        private static final String FILE = System.getProperty("user.home") + "/.ctlauncher/launcher.properties";
+        private static final Properties props = load();
+        
+        private static Properties load() {
+            Properties p = new Properties();
+            File f = new File(FILE);
+            if (f.exists()) {
+                try (InputStream in = new FileInputStream(f)) {
+                    p.load(in);
+                } catch (IOException e) {
+                    System.err.println("Failed to read " + FILE + " - " + e.getMessage());
+                }
+            }
+            return p;
+        }
+        
+        static String get(String key, String def) {
+            String v = System.getProperty("ctlauncher." + key);
+            if (v == null) v = props.getProperty(key);
+            return v != null ? v.trim() : def;
+        }
+        
+        static int getInt(String key, int def) {
+            try {
+                return Integer.parseInt(get(key, String.valueOf(def)));
+            } catch (NumberFormatException e) {
+                return def;
+            }
+        }
+        
+        static boolean getBool(String key, boolean def) {
+            return Boolean.parseBoolean(get(key, String.valueOf(def)));
+        }
+    }
+    
+    // ═══════════════════════════════════════════════════════════════════════════════
+    // HEADLESS CLI
+    // ═══════════════════════════════════════════════════════════════════════════════
+    // java CTLauncher <command> [options] <version>...
+    //   install   download everything the versions need
+    //   verify    re-hash the installed files without downloading and report the hashing
+    //             throughput (gbPerSecond); with no versions, every installed version at once
+    //   repair    verify every installed version and re-download whatever is missing or corrupt
+    //   launch    install if needed, starting the game as soon as its critical files are in
+    //             (launch.early=false waits for the assets); output goes to logs/<version>.log
+    //   list      print the versions in the manifest
+    //   serve     run the LAN cache server until killed (see LanCache)
+    //   java      `java list` shows known runtimes, `java register <home>...` adds local JDKs
+    // Options: --parallel N (versions at a time, default 2), --user NAME, --ram GB, --port N,
+    // --jvm PROFILE (see JvmTuning; default jvm.profile).
+    // latest-release and latest-snapshot stand for the manifest's current versions.
+    //
+    // stdout carries one JSON object per line (events: progress, launched, done, summary,
+    // version, broken, serving, runtime, error); diagnostics go to stderr. Exit codes are the EXIT_* constants.
+    static class Cli {
+        static final int EXIT_OK = 0;
+        static final int EXIT_FAILED = 1;
+        static final int EXIT_USAGE = 2;
+        static final int EXIT_NO_MANIFEST = 3;
+        private static final List<String> COMMANDS = Arrays.asList("install", "verify", "repair", "launch", "list", "serve", "java");
+        
+        private final PrintStream out;
+        private final LauncherCore core;
+        private final Map<String, Integer> lastPercent = new ConcurrentHashMap<>();
+        private String jvmProfile = JvmTuning.defaultProfile();
+        
+        Cli(PrintStream out) {
+            this.out = out;
+            this.core = new LauncherCore(this::progress, true);
+        }
+        
+        int run(String[] args) {
+            String command = args[0];
+            if (!COMMANDS.contains(command)) {
+                return usage(command.equals("help") || command.equals("--help") ? null : "Unknown command " + command);
+            }
+            
+            List<String> targets = new ArrayList<>();
+            int parallel = 2;
+            String user = "Player";
+            int ram = 4;
+            int port = LauncherConfig.getInt("lan.port", LanCache.DEFAULT_PORT);
+            for (int i = 1; i < args.length; i++) {
+                String arg = args[i];
+                try {
+                    switch (arg) {
+                        case "--parallel": parallel = Integer.parseInt(args[++i]); break;
+                        case "--user": user = args[++i]; break;
+                        case "--ram": ram = Integer.parseInt(args[++i]); break;
+                        case "--jvm":
+                            jvmProfile = args[++i];
+                            if (!JvmTuning.PROFILES.contains(jvmProfile)) return usage("Unknown JVM profile " + jvmProfile);
+                            break;
+                        case "--port": port = Integer.parseInt(args[++i]); break;
+                        default:
+                            if (arg.startsWith("--")) return usage("Unknown option " + arg);
+                            targets.add(arg);
+                    }
+                } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+                    return usage("Missing or invalid value for " + arg);
+                }
+            }
+            if (command.equals("serve")) return serve(port);
+            if (command.equals("java")) return java(targets);
+            if (command.equals("repair")) return targets.isEmpty() ? checkAll(true) : usage("repair takes no versions");
+            if (command.equals("verify") && targets.isEmpty()) return checkAll(false);
+            if (targets.isEmpty() && !command.equals("list")) return usage("No versions given");
+            
+            LauncherCore.createGameDirectories();
+            
+            // verify works purely from disk; launch can still start installed versions offline
+            Map<String, List<String>> categories = newVersionCategories();
+            Map<String, String> versions = Collections.emptyMap();
+            if (!command.equals("verify")) {
+                try {
+                    versions = LauncherCore.loadVersions(categories);
+                } catch (Exception e) {
+                    if (!command.equals("launch")) {
+                        emit("error", "message", "Version manifest unavailable: " + e.getMessage());
+                        return EXIT_NO_MANIFEST;
+                    }
+                }
+            }
+            
+            if (command.equals("list")) {
+                for (Map.Entry<String, List<String>> category : categories.entrySet()) {
+                    if (!targets.isEmpty() && !targets.contains(category.getKey())) continue;
+                    for (String id : category.getValue()) emit("version", "id", id, "category", category.getKey());
+                }
+                return EXIT_OK;
+            }
+            
+            List<String> resolved = new ArrayList<>();
+            for (String target : targets) {
+                List<String> latest = target.equals("latest-release") ? categories.get("Latest Release")
+                    : target.equals("latest-snapshot") ? categories.get("Latest Snapshot") : null;
+                if (latest == null) {
+                    resolved.add(target);
+                } else if (latest.isEmpty()) {
+                    emit("error", "message", "No " + target + " in the version manifest");
+                    return EXIT_NO_MANIFEST;
+                } else {
+                    resolved.add(latest.get(0));
+                }
+            }
+            
+            Map<String, String> urls = versions;
+            String player = LauncherCore.validateUsername(user);
+            int memory = ram;
+            ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(parallel, resolved.size())));
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (String version : resolved) {
+                results.add(pool.submit(() -> runOne(command, version, urls.get(version), player, memory)));
+            }
+            
+            int ok = 0;
+            for (Future<Boolean> result : results) {
+                try {
+                    if (result.get()) ok++;
+                } catch (InterruptedException | ExecutionException e) {
+                    // runOne reports its own failures
+                }
+            }
+            pool.shutdown();
+            emit("summary", "command", command, "ok", ok, "failed", resolved.size() - ok);
+            return ok == resolved.size() ? EXIT_OK : EXIT_FAILED;
+        }
+        
+        private int serve(int port) {
+            LauncherCore.createGameDirectories();
+            try {
+                LanCache.Server server = new LanCache.Server(port);
+                server.start();
+                emit("serving", "port", server.port());
+                new CountDownLatch(1).await();
+                return EXIT_OK;
+            } catch (IOException e) {
+                emit("error", "message", "Cannot serve on port " + port + ": " + e.getMessage());
+                return EXIT_FAILED;
+            } catch (InterruptedException e) {
+                return EXIT_OK;
+            }
+        }
+        
+        // verify without versions, and repair: every installed version at once (see InstallCheck)
+        private int checkAll(boolean repair) {
+            LauncherCore.createGameDirectories();
+            String command = repair ? "repair" : "verify";
+            AtomicInteger lastShown = new AtomicInteger(-1);
+            try {
+                InstallCheck.Report report = InstallCheck.run(repair, (checked, total, message) -> {
+                    int percent = total == 0 ? 100 : 100 * checked / total;
+                    if (lastShown.getAndSet(percent) != percent) emit("progress", "percent", percent, "message", message);
+                });
+                for (DownloadScheduler.Job job : report.broken) {
+                    emit("broken", "path", job.destPath, "repaired", repair && !report.failed.contains(job));
+                }
+                emit("summary", "command", command, "versions", report.versions.size(), "files", report.files,
+                    "bytes", report.bytes, "seconds", Math.round(report.hashNanos / 1e6) / 1e3,
+                    "gbPerSecond", Math.round(report.gbPerSecond() * 1000) / 1e3,
+                    "broken", report.broken.size(), "repaired", report.repaired, "failed", report.failed.size());
+                return (repair ? report.failed : report.broken).isEmpty() ? EXIT_OK : EXIT_FAILED;
+            } catch (Exception e) {
+                e.printStackTrace();
+                emit("error", "message", command + " failed: " + e.getMessage());
+                return EXIT_FAILED;
+            }
+        }
+        private int java(List<String> args) {
+            if (args.isEmpty() || !(args.get(0).equals("list") || args.get(0).equals("register"))) {
+                return usage("java takes list or register <home>...");
+            }
+            if (args.get(0).equals("register")) {
+                if (args.size() < 2) return usage("No JDK home given");
+                int failed = 0;
+                for (String home : args.subList(1, args.size())) {
+                    try {
+                        int major = JavaRuntimes.register(Paths.get(home));
+                        emit("runtime", "major", major, "home", home, "source", "registered");
+                    } catch (IOException e) {
+                        emit("error", "message", "Cannot register " + home + ": " + e.getMessage());
+                        failed++;
+                    }
+                }
+                return failed == 0 ? EXIT_OK : EXIT_FAILED;
+            }
+            
+            for (Map.Entry<Integer, Path> e : JavaRuntimes.registeredHomes().entrySet()) {
+                emit("runtime", "major", e.getKey(), "home", e.getValue().toString(), "source", "registered");
+            }
+            File[] components = new File(JAVA_DIR).listFiles(File::isDirectory);
+            for (File dir : components != null ? components : new File[0]) {
+                Path exe = JavaRuntimes.managedExecutable(dir.getName());
+                if (exe != null) emit("runtime", "component", dir.getName(), "java", exe.toString(), "source", "managed");
+            }
+            return EXIT_OK;
+        }
+        
+        private boolean runOne(String command, String version, String url, String user, int ram) {
+            long start = System.nanoTime();
+            lastPercent.remove(version);
+            String status;
+            String error = null;
+            int problems = 0;
+            Double gbPerSecond = null;
+            try {
+                switch (command) {
+                    case "install":
+                        problems = core.install(version, url);
+                        break;
+                    case "verify":
+                        InstallCheck.Report report = core.verify(version);
+                        problems = report.broken.size();
+                        gbPerSecond = Math.round(report.gbPerSecond() * 1000) / 1e3;
+                        break;
+                    default:
+                        Process game = core.launch(version, url, user, ram, jvmProfile);
+                        emit("launched", "version", version, "pid", game.pid(), "log", LauncherCore.logPath(version).toString());
+                }
+                status = problems == 0 ? "ok" : "incomplete";
+            } catch (Exception e) {
+                e.printStackTrace();
+                status = "error";
+                error = String.valueOf(e.getMessage());
+            }
+            emit("done", "version", version, "command", command, "status", status, "problems", problems,
+                "millis", (System.nanoTime() - start) / 1_000_000, "gbPerSecond", gbPerSecond, "error", error);
+            return status.equals("ok");
+        }
+        
+        // One line per whole-percent step per version keeps the stream small
+        private void progress(String version, int percent, String message) {
+            Integer previous = lastPercent.put(version, percent);
+            if (previous != null && previous == percent) return;
+            emit("progress", "version", version, "percent", percent, "message", message);
+        }
+        
+        // fields are name/value pairs; null values are left out
+        private synchronized void emit(String event, Object... fields) {
+            StringBuilder sb = new StringBuilder("{\"event\":").append(Json.quote(event));
+            for (int i = 0; i + 1 < fields.length; i += 2) {
+                Object value = fields[i + 1];
+                if (value == null) continue;
+                sb.append(',').append(Json.quote((String) fields[i])).append(':');
+                sb.append(value instanceof Number || value instanceof Boolean ? value.toString() : Json.quote(value.toString()));
+            }
+            out.println(sb.append('}'));
+            out.flush();
+        }
+        
+        private int usage(String problem) {
+            if (problem != null) System.err.println(problem);
+            System.err.println("Usage: CTLauncher <install|verify|launch|list> [--parallel N] [--user NAME] [--ram GB] [--jvm PROFILE] <version>...");
+            System.err.println("       CTLauncher verify | repair    (every installed version)");
+            System.err.println("       CTLauncher serve [--port N]");
+            System.err.println("       CTLauncher java list | java register <jdk home>...");
+            System.err.println("       versions may be ids or latest-release / latest-snapshot; list takes optional categories");
+            return problem == null ? EXIT_OK : EXIT_USAGE;
+        }
+    }
+
+    // ═══════════════════════════════════════════════════════════════════════════════
+    // MAIN
+    // ═══════════════════════════════════════════════════════════════════════════════
+    public static void main(String[] args) {
+        // Any arguments select the headless CLI, which never touches Swing
+        if (args.length > 0) {
+            System.exit(new Cli(System.out).run(args));
+        }
+        
         System.out.println("╔═══════════════════════════════════════════════════════════════╗");
         System.out.println("║       CTLauncher v1.0.4 - TLauncher Style (Java)              ║");
         System.out.println("║              Team Flames / Samsoft / Cat OS                   ║");
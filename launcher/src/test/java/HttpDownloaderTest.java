@@ -0,0 +1,92 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+// Chunked downloads against an in-process server that honours Range requests
+class HttpDownloaderTest {
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d+)");
+    private static final byte[] FIXTURE = new byte[20 << 20];
+    private static final AtomicInteger rangeRequests = new AtomicInteger();
+    private static HttpServer server;
+    
+    static {
+        // Read once when HttpDownloader is initialized, so it has to be set before the first download
+        System.setProperty("ctlauncher.download.preallocate", "false");
+    }
+    
+    @BeforeAll
+    static void startServer() throws IOException {
+        new Random(42).nextBytes(FIXTURE);
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/fixture.bin", HttpDownloaderTest::serve);
+        server.start();
+        System.setProperty("ctlauncher.http.redirect.example.test", "http://127.0.0.1:" + server.getAddress().getPort());
+    }
+    
+    @AfterAll
+    static void stopServer() {
+        server.stop(0);
+    }
+    
+    private static void serve(HttpExchange ex) throws IOException {
+        try {
+            ex.getResponseHeaders().set("Accept-Ranges", "bytes");
+            if ("HEAD".equals(ex.getRequestMethod())) {
+                ex.getResponseHeaders().set("Content-Length", String.valueOf(FIXTURE.length));
+                ex.sendResponseHeaders(200, -1);
+                return;
+            }
+            int from = 0;
+            int to = FIXTURE.length - 1;
+            String range = ex.getRequestHeaders().getFirst("Range");
+            Matcher m = range != null ? RANGE.matcher(range) : null;
+            if (m != null && m.matches()) {
+                rangeRequests.incrementAndGet();
+                from = Integer.parseInt(m.group(1));
+                to = Math.min(to, Integer.parseInt(m.group(2)));
+                ex.getResponseHeaders().set("Content-Range", "bytes " + from + "-" + to + "/" + FIXTURE.length);
+                ex.sendResponseHeaders(206, to - from + 1);
+            } else {
+                ex.sendResponseHeaders(200, FIXTURE.length);
+            }
+            try (OutputStream out = ex.getResponseBody()) {
+                out.write(FIXTURE, from, to - from + 1);
+            }
+        } finally {
+            ex.close();
+        }
+    }
+    
+    @Test
+    void chunkedDownloadWithoutPreallocation() throws Exception {
+        assertFalse(CTLauncher.HttpDownloader.PREALLOCATE);
+        Path dest = Paths.get(System.getProperty("user.home"), "downloads", "fixture.bin");
+        Files.createDirectories(dest.getParent());
+        Files.deleteIfExists(dest);
+        
+        CTLauncher.HttpDownloader.download("http://example.test/fixture.bin", dest,
+            CTLauncher.toHex(java.security.MessageDigest.getInstance("SHA-1").digest(FIXTURE)), FIXTURE.length);
+        
+        assertArrayEquals(FIXTURE, Files.readAllBytes(dest));
+        // One request per chunk: no chunk had to be retried
+        assertEquals(4, rangeRequests.get());
+        assertFalse(Files.exists(Paths.get(dest + ".part")));
+    }
+}